@@ -4,6 +4,7 @@ package org.kin.framework.actor;
 import org.kin.framework.actor.domain.ActorPath;
 import org.kin.framework.actor.impl.AbstractActor;
 
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
@@ -24,6 +25,12 @@ public interface Actor<AA extends AbstractActor<AA>> {
      */
     void tell(Message<AA> message);
 
+    /**
+     * 消息匹配对应预定义方法并执行, 不阻塞, 返回的future在预定义方法回复时完成
+     * 超时未回复则以TimeoutException完成
+     */
+    <T, R> CompletableFuture<R> ask(T message, long timeout, TimeUnit unit);
+
     /**
      * 调度执行@message 方法
      */
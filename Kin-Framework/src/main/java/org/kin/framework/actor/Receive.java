@@ -14,4 +14,13 @@ public interface Receive {
     }
 
     <AA extends AbstractActor<AA>, T> void receive(AA applier, T message);
+
+    /**
+     * 用于ask请求没有匹配的方法时快速失败
+     *
+     * @return 是否有方法会处理该message
+     */
+    default boolean matches(Object message) {
+        return true;
+    }
 }
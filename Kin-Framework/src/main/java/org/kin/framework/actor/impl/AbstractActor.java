@@ -6,6 +6,7 @@ import org.kin.framework.actor.Receive;
 import org.kin.framework.actor.domain.ActorPath;
 import org.kin.framework.actor.domain.PoisonPill;
 
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
@@ -37,6 +38,11 @@ public abstract class AbstractActor<AA extends AbstractActor<AA>> implements Act
         actorContext.receive(message);
     }
 
+    @Override
+    public final <T, R> CompletableFuture<R> ask(T message, long timeout, TimeUnit unit) {
+        return actorContext.ask(message, timeout, unit);
+    }
+
     @Override
     public final Future<?> schedule(Message<AA> message, long delay, TimeUnit unit) {
         return actorContext.receiveSchedule(message, delay, unit);
@@ -62,6 +68,45 @@ public abstract class AbstractActor<AA extends AbstractActor<AA>> implements Act
         return actorContext.getActorPath();
     }
 
+    /**
+     * Actor 线程执行
+     * 回复当前处理的ask请求
+     *
+     * @return 当前处理的不是ask请求或请求已完成(比如超时)返回false
+     */
+    protected final boolean reply(Object result) {
+        return actorContext.reply(result);
+    }
+
+    /**
+     * Actor 线程执行
+     * 获取当前处理的ask请求, 用于异步处理完再回复, 可在任意线程complete
+     *
+     * @return 当前处理的不是ask请求返回null
+     */
+    protected final <R> CompletableFuture<R> currentAsk() {
+        return actorContext.currentAsk();
+    }
+
+    /**
+     * 使用有界邮箱, 覆盖ActorSystem的默认配置, 之后入队的邮件才计入容量
+     * 一般在构造方法中调用
+     */
+    public final void boundMailbox(int capacity, MailboxOverflowStrategy strategy) {
+        boundMailbox(capacity, strategy, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param blockTimeout 仅{@link MailboxOverflowStrategy#BLOCK}策略有效, 发送线程最多阻塞的时间
+     */
+    public final void boundMailbox(int capacity, MailboxOverflowStrategy strategy, long blockTimeout, TimeUnit unit) {
+        actorContext.setMailboxBound(capacity, strategy, blockTimeout, unit);
+    }
+
+    ActorContext<AA> getActorContext() {
+        return actorContext;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -4,21 +4,50 @@ import org.kin.framework.actor.Message;
 import org.kin.framework.actor.Receive;
 import org.kin.framework.actor.domain.ActorPath;
 import org.kin.framework.actor.domain.PoisonPill;
+import org.kin.framework.concurrent.LatencyHistogram;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayDeque;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Created by huangjianqin on 2018/6/5.
  * <p>
  * 部分成员域, 在Actor 线程, lazy init
+ * <p>
+ * 邮件进入{@link Mailbox}, 由调度状态保证同一时刻只有一条线程处理该Actor的邮件
+ * 每次调度最多处理throughput封邮件, 仍有邮件则重新提交到线程池, 让出线程给其他Actor
+ * <p>
+ * 按消息类型抽样统计处理耗时直方图; 每封邮件都检查是否超过慢消息阈值, 超过才打印日志
+ * <p>
+ * ask请求随邮件入队, 处理期间绑定为当前请求, 可由处理方法回复; 超时由ActorSystem的时间轮统一检查
+ * <p>
+ * 可选有界邮箱, 只有设置了容量才统计待处理邮件数; 溢出或Actor停止后的邮件进入ActorSystem的死信通道
+ * PoisonPill不受容量限制, 保证Actor总能停止
+ * {@link MailboxOverflowStrategy#DROP_OLDEST}策略下, 之后的邮件改为进入加锁的双端队列, 由发送线程直接淘汰最旧的邮件,
+ * 计入容量的邮件数不超过容量(切换前已在无锁邮箱中的邮件除外)
+ * <p>
+ * 停止后邮箱的清空及preStop/postStop回调都在Actor执行线程完成, 停止时仍在入队的邮件也会被清空并计入死信
  */
 public class ActorContext<AA extends AbstractActor<AA>> implements Runnable {
+    private static final AtomicIntegerFieldUpdater<ActorContext> STATUS_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(ActorContext.class, "status");
+    private static final AtomicIntegerFieldUpdater<ActorContext> PENDING_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(ActorContext.class, "pending");
+    //没有线程处理该Actor的邮件
+    private static final int IDLE = 0;
+    //已提交到线程池或正在处理邮件
+    private static final int SCHEDULED = 1;
+
     private static final Logger log = LoggerFactory.getLogger("Actor");
     private static final Logger profileLog = LoggerFactory.getLogger("ActorProfile");
 
@@ -28,11 +57,36 @@ public class ActorContext<AA extends AbstractActor<AA>> implements Runnable {
     private Receive receive;
     private final ActorSystem actorSystem;
 
-    private final Queue<Mail<AA>> mailBox = new ConcurrentLinkedDeque<>();
-    private final AtomicInteger boxSize = new AtomicInteger();
+    private final Mailbox mailBox = new Mailbox();
+    //DROP_OLDEST策略下的邮箱, 发送线程与Actor执行线程都持有其锁访问, 设置后不再变回null
+    private volatile ArrayDeque<Mail<AA>> lockedMails;
+    //每次调度最多处理的邮件数
+    private final int throughput;
+    private volatile int status = IDLE;
+    //有界邮箱配置, null则无界
+    private volatile MailboxBound mailboxBound;
+    //有界邮箱下计入容量的待处理邮件数
+    private volatile int pending;
+    //BLOCK策略下, 等待邮箱空位的发送线程
+    private final ReentrantLock notFullLock = new ReentrantLock();
+    private final Condition notFull = notFullLock.newCondition();
+    private volatile int blockedSenders;
+    //死信计数器, lazy init
+    private volatile LongAdder overflowCounter;
+    private volatile LongAdder stoppedCounter;
+    //消息类型 -> 处理耗时(纳秒), 只由Actor执行线程写
+    private final Map<Class<?>, LatencyHistogram> mailLatencies = new ConcurrentHashMap<>();
+    //已处理邮件数, 用于抽样, 只由Actor执行线程(串行)读写
+    private int handledCount;
+    //当前处理的ask请求, 只由Actor执行线程读写
+    private CompletableFuture<Object> currentAsk;
     private volatile Thread currentThread;
     private volatile boolean isStarted = false;
     private volatile boolean isStopped = false;
+    //是否已在Actor执行线程完成停止处理, 只由Actor执行线程读写
+    private boolean isClosed = false;
+    //作为routee被Router移除后, 之后收到的邮件交给该Router重新路由
+    private volatile Router<AA> rerouter;
 
     private static Map<ActorContext<?>, Queue<Future>> futures = new ConcurrentHashMap<>();
     //-----------------------------------------------------------------------------------------------
@@ -41,6 +95,12 @@ public class ActorContext<AA extends AbstractActor<AA>> implements Runnable {
         this.actorPath = actorPath;
         this.self = self;
         this.actorSystem = actorSystem;
+        this.throughput = actorSystem.getThroughput();
+        MailboxBound mailboxBound = actorSystem.getDefaultMailboxBound();
+        if (mailboxBound != null && mailboxBound.strategy == MailboxOverflowStrategy.DROP_OLDEST) {
+            this.lockedMails = new ArrayDeque<>();
+        }
+        this.mailboxBound = mailboxBound;
     }
 
     /**
@@ -56,42 +116,206 @@ public class ActorContext<AA extends AbstractActor<AA>> implements Runnable {
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public void run() {
-        if (!isStarted) {
-            selfInit();
-        }
-        this.currentThread = Thread.currentThread();
+        Thread thread = Thread.currentThread();
+        this.currentThread = thread;
+        try {
+            if (isStopped) {
+                //closeNow, 或停止后仍有邮件入队
+                if (!isClosed) {
+                    onClose();
+                } else {
+                    drainStopped();
+                }
+                return;
+            }
+            if (!isStarted) {
+                selfInit();
+            }
+
+            int sampleMask = actorSystem.getProfileSampleMask();
+            long slowThresholdNanos = actorSystem.getSlowMailThresholdNanos();
+            //每封邮件只取一次时间, 上一封邮件的结束时间即下一封的开始时间, 出队的耗时可忽略
+            long st = System.nanoTime();
+            for (int processed = 0; processed < throughput && !isStopped && !thread.isInterrupted(); processed++) {
+                Mail<AA> mail = pollMail();
+                if (mail == null) {
+                    break;
+                }
+                if (mail.bounded) {
+                    onBoundedDequeue();
+                }
+                if (rerouter != null && reroute(mail)) {
+                    continue;
+                }
 
-        while (isStarted && !isStopped && this.currentThread != null && !this.currentThread.isInterrupted()) {
-            Mail<AA> mail = mailBox.poll();
-            if (mail == null) {
-                break;
+                handleSafely(mail);
+                long end = System.nanoTime();
+                long cost = end - st;
+                st = end;
+                //耗时直方图抽样统计, 慢消息每封都检查
+                if ((++handledCount & sampleMask) == 0) {
+                    profile(mail.type(), cost);
+                }
+                if (cost >= slowThresholdNanos) {
+                    onSlowMail(mail.type(), cost);
+                }
+            }
+        } finally {
+            this.currentThread = null;
+            if (!isStopped && hasMail()) {
+                //处理满throughput封后仍有邮件, 保持SCHEDULED直接重新提交, 省去放弃再抢占调度的两次原子操作
+                resubmit();
+            } else {
+                status = IDLE;
+                //放弃调度后再检查一次, 防止与入队线程同时放弃调度而丢失邮件; 已停止则由下次调度清空邮箱或完成停止处理
+                if (hasMail() || (isStopped && !isClosed)) {
+                    trySchedule();
+                }
             }
+        }
+    }
 
-            long st = System.currentTimeMillis();
-            mail.handle(self);
-            long cost = System.currentTimeMillis() - st;
+    /**
+     * Actor执行线程调用, 先取无锁邮箱的邮件, 再取加锁队列的邮件
+     * 切换到加锁队列后, 同一发送线程之前的邮件都已在无锁邮箱中, 因此仍保持发送顺序
+     */
+    @SuppressWarnings("unchecked")
+    private Mail<AA> pollMail() {
+        Mail<AA> mail = (Mail<AA>) mailBox.poll();
+        if (mail != null) {
+            return mail;
+        }
+        ArrayDeque<Mail<AA>> lockedMails = this.lockedMails;
+        if (lockedMails == null) {
+            return null;
+        }
+        synchronized (lockedMails) {
+            return lockedMails.pollFirst();
+        }
+    }
 
-            profileLog.info("handle mail({}) cost {} ms", mail.name(), cost);
+    /**
+     * Actor执行线程调用, 加锁队列的检查与入队互斥, 同样可作为放弃调度前的最后检查
+     */
+    private boolean hasMail() {
+        if (!mailBox.isEmpty()) {
+            return true;
+        }
+        ArrayDeque<Mail<AA>> lockedMails = this.lockedMails;
+        if (lockedMails == null) {
+            return false;
+        }
+        synchronized (lockedMails) {
+            return !lockedMails.isEmpty();
+        }
+    }
 
-            if (boxSize.decrementAndGet() <= 0) {
-                break;
-            }
+    /**
+     * @return 是否已重新路由, false则照常处理(PoisonPill)或进入死信通道
+     */
+    private boolean reroute(Mail<AA> mail) {
+        Router<AA> rerouter = this.rerouter;
+        if (rerouter == null) {
+            return false;
+        }
+        try {
+            return mail.reroute(rerouter);
+        } catch (MailboxOverflowException e) {
+            //目标routee已将其计入死信
+            return true;
+        } catch (Exception e) {
+            log.error("actor '" + actorPath.getPath() + "' reroute mail(" + mail.type().getName() + ") error", e);
+            return true;
         }
-        this.currentThread = null;
+    }
+
+    /**
+     * 任意线程调用, 作为routee被Router移除
+     * 发送不受容量限制的退役邮件, 处理到该邮件时停止, 之后收到的邮件都交给Router重新路由
+     */
+    void retire(Router<AA> router) {
+        enqueue(new RetireMailImpl(router), false);
+    }
+
+    private void handleSafely(Mail<AA> mail) {
+        try {
+            mail.handle(self);
+        } catch (Exception e) {
+            log.error("actor '" + actorPath.getPath() + "' handle mail(" + mail.type().getName() + ") error", e);
+        }
+    }
+
+    /**
+     * 记录处理耗时, 不分配对象(首次出现的消息类型除外)
+     */
+    private void profile(Class<?> type, long costNanos) {
+        LatencyHistogram histogram = mailLatencies.get(type);
+        if (histogram == null) {
+            histogram = mailLatencies.computeIfAbsent(type, k -> new LatencyHistogram());
+        }
+        histogram.record(costNanos);
+    }
+
+    private void onSlowMail(Class<?> type, long costNanos) {
+        actorSystem.onSlowMail();
+        profileLog.warn("actor '{}' handle mail({}) cost {} ms", actorPath.getPath(), type.getName(), TimeUnit.NANOSECONDS.toMillis(costNanos));
     }
 
     //-----------------------------------------------------------------------------------------------
-    private interface Mail<AA extends AbstractActor<AA>> {
-        void handle(AA applier);
+    private abstract static class Mail<AA extends AbstractActor<AA>> extends Mailbox.Node {
+        //是否计入有界邮箱容量, 入队前设置
+        private boolean bounded;
+
+        abstract void handle(AA applier);
+
+        /**
+         * @return 消息类型, 用于统计处理耗时
+         */
+        abstract Class<?> type();
+
+        /**
+         * @return 消息, 用于死信
+         */
+        abstract Object message();
+
+        /**
+         * 进入死信通道时调用
+         */
+        void onDropped(DeadLetter.Reason reason) {
+        }
+
+        /**
+         * @return 是否已交给router重新路由
+         */
+        boolean reroute(Router<AA> router) {
+            return false;
+        }
+    }
 
-        String name();
+    /**
+     * 有界邮箱配置
+     */
+    static final class MailboxBound {
+        private final int capacity;
+        private final MailboxOverflowStrategy strategy;
+        private final long blockTimeoutNanos;
+
+        MailboxBound(int capacity, MailboxOverflowStrategy strategy, long blockTimeout, TimeUnit unit) {
+            if (capacity <= 0) {
+                throw new IllegalArgumentException("mailbox capacity must be greater than 0");
+            }
+            this.capacity = capacity;
+            this.strategy = strategy;
+            this.blockTimeoutNanos = unit.toNanos(blockTimeout);
+        }
     }
 
     /**
      * 处理消息匹配
      */
-    private class ReceiveMailImpl<T> implements Mail<AA> {
+    private class ReceiveMailImpl<T> extends Mail<AA> {
         private T arg;
 
         private ReceiveMailImpl(T arg) {
@@ -99,7 +323,7 @@ public class ActorContext<AA extends AbstractActor<AA>> implements Runnable {
         }
 
         @Override
-        public void handle(AA applier) {
+        void handle(AA applier) {
             receive.receive(applier, arg);
             if (arg instanceof PoisonPill) {
                 //执行完开发者自定消息处理后, close
@@ -108,15 +332,86 @@ public class ActorContext<AA extends AbstractActor<AA>> implements Runnable {
         }
 
         @Override
-        public String name() {
-            return "method with arg(" + arg.getClass().getName() + ")";
+        Class<?> type() {
+            return arg.getClass();
+        }
+
+        @Override
+        Object message() {
+            return arg;
+        }
+
+        @Override
+        boolean reroute(Router<AA> router) {
+            if (arg instanceof PoisonPill) {
+                return false;
+            }
+            router.reroute(arg);
+            return true;
+        }
+    }
+
+    /**
+     * 处理消息匹配, 处理期间可回复该ask请求
+     */
+    private class AskMailImpl<T> extends ReceiveMailImpl<T> {
+        private final CompletableFuture<Object> future;
+
+        //超时时间点, 重新路由时用剩余时间
+        private final long deadlineNanos;
+
+        private AskMailImpl(T arg, CompletableFuture<Object> future, long timeoutNanos) {
+            super(arg);
+            this.future = future;
+            this.deadlineNanos = System.nanoTime() + timeoutNanos;
+        }
+
+        @Override
+        void handle(AA applier) {
+            if (!receive.matches(message())) {
+                future.completeExceptionally(new IllegalArgumentException("actor '" + actorPath.getPath() + "' has no receive func matched message(" + type().getName() + ")"));
+            }
+            currentAsk = future;
+            try {
+                super.handle(applier);
+            } catch (RuntimeException | Error e) {
+                //仍由handleSafely记录日志
+                future.completeExceptionally(e);
+                throw e;
+            } finally {
+                currentAsk = null;
+            }
+        }
+
+        @Override
+        boolean reroute(Router<AA> router) {
+            CompletableFuture<Object> rerouted = router.rerouteAsk(message(), Math.max(deadlineNanos - System.nanoTime(), 0));
+            if (rerouted == null) {
+                future.completeExceptionally(new IllegalStateException("routee '" + actorPath.getPath() + "' has been removed"));
+            } else {
+                rerouted.whenComplete((result, throwable) -> {
+                    if (throwable == null) {
+                        future.complete(result);
+                    } else {
+                        future.completeExceptionally(throwable);
+                    }
+                });
+            }
+            return true;
+        }
+
+        @Override
+        void onDropped(DeadLetter.Reason reason) {
+            future.completeExceptionally(reason == DeadLetter.Reason.OVERFLOW ?
+                    new MailboxOverflowException("mailbox of actor '" + actorPath.getPath() + "' is full") :
+                    new IllegalStateException("actor '" + actorPath.getPath() + "' has stopped"));
         }
     }
 
     /**
      * 直接执行task
      */
-    private class MessageMailImpl implements Mail<AA> {
+    private class MessageMailImpl extends Mail<AA> {
         private Message<AA> message;
 
         public MessageMailImpl(Message<AA> message) {
@@ -124,35 +419,342 @@ public class ActorContext<AA extends AbstractActor<AA>> implements Runnable {
         }
 
         @Override
-        public void handle(AA applier) {
+        void handle(AA applier) {
             message.handle(applier);
         }
 
         @Override
-        public String name() {
-            return message.getClass().getName();
+        Class<?> type() {
+            return message.getClass();
+        }
+
+        @Override
+        Object message() {
+            return message;
+        }
+
+        @Override
+        boolean reroute(Router<AA> router) {
+            router.rerouteTell(message);
+            return true;
+        }
+    }
+
+    /**
+     * 作为routee被Router移除, 之后收到的邮件交给Router重新路由, 并停止
+     */
+    private class RetireMailImpl extends Mail<AA> {
+        private final Router<AA> router;
+
+        private RetireMailImpl(Router<AA> router) {
+            this.router = router;
+        }
+
+        @Override
+        void handle(AA applier) {
+            rerouter = router;
+            applier.stop();
+        }
+
+        @Override
+        Class<?> type() {
+            return RetireMailImpl.class;
+        }
+
+        @Override
+        Object message() {
+            return router;
         }
     }
 
     //-----------------------------------------------------------------------------------------------
+    /**
+     * 邮件入队后调用, 调度状态为IDLE才提交到线程池, 高负载时只是一次volatile读
+     * 入队时Actor已停止也要调度, 由Actor执行线程清空邮箱并计入死信
+     */
     private void tryRun() {
-        if (isStarted && !isStopped && boxSize.incrementAndGet() == 1) {
+        if (status == IDLE) {
+            trySchedule();
+        }
+    }
+
+    private void trySchedule() {
+        if (STATUS_UPDATER.compareAndSet(this, IDLE, SCHEDULED)) {
+            try {
+                actorSystem.getThreadManager().execute(this);
+            } catch (RejectedExecutionException e) {
+                status = IDLE;
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 已是SCHEDULED状态, 重新提交到线程池
+     */
+    private void resubmit() {
+        try {
             actorSystem.getThreadManager().execute(this);
+        } catch (RejectedExecutionException e) {
+            status = IDLE;
+            throw e;
         }
     }
 
+    /**
+     * 有界邮箱, 并且策略为{@link MailboxOverflowStrategy#REJECT}时, 邮箱满会抛{@link MailboxOverflowException}
+     */
     public <T> void receive(T arg) {
-        Mail<AA> mail = new ReceiveMailImpl<T>(arg);
-        mailBox.add(mail);
-        tryRun();
+        boolean poisonPill = arg instanceof PoisonPill;
+        if (poisonPill && isStopped) {
+            //已停止, 重复的PoisonPill不算死信
+            return;
+        }
+        //PoisonPill不受容量限制
+        enqueue(new ReceiveMailImpl<T>(arg), !poisonPill);
     }
 
     public void receive(Message<AA> message) {
-        Mail<AA> mail = new MessageMailImpl(message);
-        mailBox.add(mail);
+        enqueue(new MessageMailImpl(message), true);
+    }
+
+    private void enqueue(Mail<AA> mail, boolean boundable) {
+        if (isStopped) {
+            if (!reroute(mail)) {
+                deadLetter(mail, DeadLetter.Reason.STOPPED);
+            }
+            return;
+        }
+        MailboxBound mailboxBound = this.mailboxBound;
+        boolean evictOldest = false;
+        if (boundable && mailboxBound != null) {
+            //占用有界邮箱的一个位置
+            mail.bounded = true;
+            if (PENDING_UPDATER.incrementAndGet(this) > mailboxBound.capacity) {
+                if (mailboxBound.strategy == MailboxOverflowStrategy.DROP_OLDEST) {
+                    //照常入队, 同时淘汰最旧的邮件, 占用的位置转给该邮件
+                    evictOldest = true;
+                } else if (!overflow(mailboxBound, mail)) {
+                    return;
+                }
+            }
+        }
+        offer(mail, evictOldest);
+        //入队后才停止的邮件, 可能错过close的清空, 仍会被调度清空
         tryRun();
     }
 
+    private void offer(Mail<AA> mail, boolean evictOldest) {
+        ArrayDeque<Mail<AA>> lockedMails = this.lockedMails;
+        if (lockedMails == null) {
+            mailBox.offer(mail);
+            return;
+        }
+        Mail<AA> evicted = null;
+        synchronized (lockedMails) {
+            if (evictOldest) {
+                evicted = evictOldest(lockedMails);
+            }
+            lockedMails.addLast(mail);
+        }
+        if (evicted != null) {
+            deadLetter(evicted, DeadLetter.Reason.OVERFLOW);
+        }
+    }
+
+    /**
+     * 持有lockedMails的锁调用, 跳过PoisonPill等不计入容量的邮件
+     *
+     * @return 被淘汰的邮件, null则计入容量的邮件都在无锁邮箱中(切换前入队)或正被取出, Actor执行线程出队后会释放其位置
+     */
+    private Mail<AA> evictOldest(ArrayDeque<Mail<AA>> lockedMails) {
+        Iterator<Mail<AA>> iterator = lockedMails.iterator();
+        while (iterator.hasNext()) {
+            Mail<AA> mail = iterator.next();
+            if (mail.bounded) {
+                iterator.remove();
+                PENDING_UPDATER.decrementAndGet(this);
+                return mail;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 邮箱已满, 按非{@link MailboxOverflowStrategy#DROP_OLDEST}策略处理, 调用前已占用一个位置
+     *
+     * @return 是否可以入队, false则邮件已进入死信通道
+     */
+    private boolean overflow(MailboxBound mailboxBound, Mail<AA> mail) {
+        PENDING_UPDATER.decrementAndGet(this);
+        switch (mailboxBound.strategy) {
+            case BLOCK:
+                if (awaitNotFull(mailboxBound)) {
+                    return true;
+                }
+                deadLetter(mail, isStopped ? DeadLetter.Reason.STOPPED : DeadLetter.Reason.OVERFLOW);
+                return false;
+            case REJECT:
+                deadLetter(mail, DeadLetter.Reason.OVERFLOW);
+                throw new MailboxOverflowException("mailbox of actor '" + actorPath.getPath() + "' is full, capacity " + mailboxBound.capacity);
+            default:
+                deadLetter(mail, DeadLetter.Reason.OVERFLOW);
+                return false;
+        }
+    }
+
+    /**
+     * 等待邮箱有空位并占用, 超时, 被中断或Actor停止返回false
+     */
+    private boolean awaitNotFull(MailboxBound mailboxBound) {
+        long nanos = mailboxBound.blockTimeoutNanos;
+        notFullLock.lock();
+        try {
+            blockedSenders++;
+            try {
+                while (true) {
+                    int current = pending;
+                    if (current < mailboxBound.capacity) {
+                        if (PENDING_UPDATER.compareAndSet(this, current, current + 1)) {
+                            return true;
+                        }
+                        continue;
+                    }
+                    if (nanos <= 0 || isStopped) {
+                        return false;
+                    }
+                    nanos = notFull.awaitNanos(nanos);
+                }
+            } finally {
+                blockedSenders--;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            notFullLock.unlock();
+        }
+    }
+
+    /**
+     * Actor执行线程取出计入容量的邮件后调用
+     */
+    private void onBoundedDequeue() {
+        PENDING_UPDATER.decrementAndGet(this);
+        //与awaitNotFull中先增加blockedSenders再检查pending构成Dekker式同步, 不会丢失唤醒
+        if (blockedSenders > 0) {
+            signalNotFull(false);
+        }
+    }
+
+    private void signalNotFull(boolean all) {
+        notFullLock.lock();
+        try {
+            if (all) {
+                notFull.signalAll();
+            } else {
+                notFull.signal();
+            }
+        } finally {
+            notFullLock.unlock();
+        }
+    }
+
+    private void deadLetter(Mail<AA> mail, DeadLetter.Reason reason) {
+        mail.onDropped(reason);
+        DeadLetters deadLetters = actorSystem.getDeadLetters();
+        LongAdder counter;
+        if (reason == DeadLetter.Reason.OVERFLOW) {
+            counter = overflowCounter;
+            if (counter == null) {
+                counter = overflowCounter = deadLetters.counter(actorPath, reason);
+            }
+        } else {
+            counter = stoppedCounter;
+            if (counter == null) {
+                counter = stoppedCounter = deadLetters.counter(actorPath, reason);
+            }
+        }
+        deadLetters.publish(actorPath, mail.message(), reason, counter);
+    }
+
+    /**
+     * 设置有界邮箱, 之后入队的邮件才计入容量
+     *
+     * @param blockTimeout 仅{@link MailboxOverflowStrategy#BLOCK}策略有效
+     */
+    public void setMailboxBound(int capacity, MailboxOverflowStrategy strategy, long blockTimeout, TimeUnit unit) {
+        MailboxBound mailboxBound = new MailboxBound(capacity, strategy, blockTimeout, unit);
+        if (strategy == MailboxOverflowStrategy.DROP_OLDEST && lockedMails == null) {
+            synchronized (this) {
+                if (lockedMails == null) {
+                    //先于新配置可见, 发送线程看到DROP_OLDEST时一定已切换到加锁队列
+                    lockedMails = new ArrayDeque<>();
+                }
+            }
+        }
+        this.mailboxBound = mailboxBound;
+    }
+
+    /**
+     * 不阻塞, 回复或超时时complete
+     * 超时只是往时间轮挂一个timeout, 回复后O(1)取消, 可支撑大量未完成的ask请求
+     */
+    @SuppressWarnings("unchecked")
+    public <T, R> CompletableFuture<R> ask(T arg, long timeout, TimeUnit unit) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        AskMailImpl<T> mail = new AskMailImpl<>(arg, future, unit.toNanos(timeout));
+        if (isStopped) {
+            if (!reroute(mail)) {
+                deadLetter(mail, DeadLetter.Reason.STOPPED);
+            }
+            return (CompletableFuture<R>) future;
+        }
+        if (!actorSystem.addAsk(future)) {
+            return (CompletableFuture<R>) future;
+        }
+        ScheduledFuture<?> timeoutFuture;
+        try {
+            timeoutFuture = actorSystem.getAskTimer().schedule(() ->
+                            future.completeExceptionally(new TimeoutException("ask actor '" + actorPath.getPath() + "' timeout after " + unit.toMillis(timeout) + " ms")),
+                    timeout, unit);
+        } catch (RejectedExecutionException e) {
+            //并发shutdown, future一般已失败
+            future.completeExceptionally(e);
+            actorSystem.removeAsk(future);
+            return (CompletableFuture<R>) future;
+        }
+        future.whenComplete((result, throwable) -> {
+            timeoutFuture.cancel(false);
+            actorSystem.removeAsk(future);
+        });
+        try {
+            enqueue(mail, !(arg instanceof PoisonPill));
+        } catch (MailboxOverflowException e) {
+            //REJECT, future已以该异常完成
+        }
+        return (CompletableFuture<R>) future;
+    }
+
+    /**
+     * Actor线程执行
+     *
+     * @return 是否回复成功, 当前处理的不是ask请求或请求已完成(比如超时)返回false
+     */
+    boolean reply(Object result) {
+        return currentAsk != null && currentAsk.complete(result);
+    }
+
+    /**
+     * Actor线程执行
+     *
+     * @return 当前处理的ask请求, 不是ask请求返回null
+     */
+    @SuppressWarnings("unchecked")
+    <R> CompletableFuture<R> currentAsk() {
+        return (CompletableFuture<R>) (CompletableFuture<?>) currentAsk;
+    }
+
     public Future<?> receiveSchedule(Message<AA> message, long delay, TimeUnit unit) {
         Future future = actorSystem.getThreadManager().schedule(() -> {
             receive(message);
@@ -175,46 +777,55 @@ public class ActorContext<AA extends AbstractActor<AA>> implements Runnable {
     public void close() {
         isStopped = true;
         actorSystem.remove(actorPath);
+        onClose();
+    }
+
+    /**
+     * 任意线程调用
+     * ps: 中断当前执行线程, 另外调度一次Actor执行线程完成停止处理
+     */
+    public void closeNow() {
+        isStopped = true;
+        actorSystem.remove(actorPath);
+        signalNotFull(true);
+        Thread currentThread = this.currentThread;
+        if (currentThread != null) {
+            currentThread.interrupt();
+        }
+        //正在执行则由其放弃调度后再调度
+        trySchedule();
+    }
+
+    /**
+     * Actor线程执行
+     */
+    private void onClose() {
+        isClosed = true;
         self.preStop();
         try {
             clearFutures();
-            boxSize.set(0);
-            mailBox.clear();
-            //help GC
-            this.currentThread = null;
+            drainStopped();
+            //唤醒阻塞的发送线程
+            signalNotFull(true);
         } finally {
             self.postStop();
         }
     }
 
     /**
-     * Actor线程执行
-     * ps: 停止当前执行线程, 另外开
+     * Actor线程执行, 未处理的邮件进入死信通道
      */
-    public void closeNow() {
-        isStopped = true;
-        actorSystem.remove(actorPath);
-        if (this.currentThread != null) {
-            this.currentThread.interrupt();
-            //help GC
-            this.currentThread = null;
-        }
-        actorSystem.getThreadManager().execute(() -> {
-            self.preStop();
-            try {
-                clearFutures();
-                boxSize.set(0);
-                mailBox.clear();
-            } finally {
-                self.postStop();
+    private void drainStopped() {
+        Mail<AA> mail;
+        while ((mail = pollMail()) != null) {
+            if (!reroute(mail)) {
+                deadLetter(mail, DeadLetter.Reason.STOPPED);
             }
-        });
+        }
     }
 
     private void addFuture(Future<?> future) {
-        Queue<Future> queue;
-        while ((queue = futures.putIfAbsent(this, new ConcurrentLinkedQueue<>())) == null)
-            queue.add(future);
+        futures.computeIfAbsent(this, k -> new ConcurrentLinkedQueue<>()).add(future);
     }
 
     private void clearFutures() {
@@ -253,4 +864,24 @@ public class ActorContext<AA extends AbstractActor<AA>> implements Runnable {
     public boolean isStopped() {
         return isStopped;
     }
+
+    /**
+     * @return 邮箱中待处理的邮件数, 估算值
+     */
+    public int getMailBoxSize() {
+        ArrayDeque<Mail<AA>> lockedMails = this.lockedMails;
+        if (lockedMails == null) {
+            return mailBox.size();
+        }
+        synchronized (lockedMails) {
+            return mailBox.size() + lockedMails.size();
+        }
+    }
+
+    /**
+     * @return 消息类型 -> 抽样统计的处理耗时(纳秒)
+     */
+    public Map<Class<?>, LatencyHistogram> getMailLatencies() {
+        return Collections.unmodifiableMap(mailLatencies);
+    }
 }
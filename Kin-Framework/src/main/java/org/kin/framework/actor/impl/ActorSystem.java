@@ -1,17 +1,30 @@
 package org.kin.framework.actor.impl;
 
 import org.kin.framework.actor.domain.ActorPath;
+import org.kin.framework.concurrent.ExecutorType;
+import org.kin.framework.concurrent.HashedWheelTimer;
+import org.kin.framework.concurrent.LatencyHistogram;
 import org.kin.framework.concurrent.ThreadManager;
 import org.kin.framework.utils.ExceptionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.util.Map;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
 
 /**
  * Created by huangjianqin on 2018/6/5.
@@ -20,27 +33,59 @@ public class ActorSystem {
     private static final Logger log = LoggerFactory.getLogger("Actor");
     private static final Map<String, ActorSystem> name2AS = new ConcurrentHashMap<>();
     private static final String DEFAULT_AS_NAME = "default";
+    //actor每次调度默认最多处理的邮件数
+    public static final int DEFAULT_THROUGHPUT = 100;
+    //消息处理耗时超过该值才打印日志
+    public static final long DEFAULT_SLOW_MAIL_THRESHOLD_MS = 100;
+    //默认每16封邮件抽样统计一次处理耗时直方图, 每封邮件都记录直方图的开销比邮箱本身还大
+    public static final int DEFAULT_PROFILE_SAMPLE_INTERVAL = 16;
 
     static {
         ActorSystem defaultAS = new ActorSystem(DEFAULT_AS_NAME);
         name2AS.put(DEFAULT_AS_NAME, defaultAS);
+        defaultAS.registerMBean();
     }
 
     private final String name;
     //该actor system下的actor
     private Map<String, AbstractActor> path2Actors = new ConcurrentHashMap<>();
+    //该actor system下的router
+    private final Map<String, Router<?>> path2Routers = new ConcurrentHashMap<>();
     //每个actor system绑定一个线程池，并且该actor system下的actor使用该线程池
     private ThreadManager threadManager = ThreadManager.DEFAULT;
+    //actor每次调度最多处理的邮件数, 越大吞吐量越高, 越小各actor之间越公平
+    private final int throughput;
+    //每2^n封邮件抽样统计一次处理耗时, 0则全部统计
+    private volatile int profileSampleMask = DEFAULT_PROFILE_SAMPLE_INTERVAL - 1;
+    private volatile long slowMailThresholdNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_SLOW_MAIL_THRESHOLD_MS);
+    private final LongAdder slowMailCount = new LongAdder();
+    private final Metrics metrics = new Metrics();
+    private final DeadLetters deadLetters = new DeadLetters();
+    //新建actor默认的有界邮箱配置, null则无界
+    private volatile ActorContext.MailboxBound defaultMailboxBound;
+    //ask请求超时检查, 第一次ask时才创建
+    private volatile HashedWheelTimer askTimer;
+    //未完成的ask请求, shutdown时令其失败
+    private final Set<CompletableFuture<?>> pendingAsks = ConcurrentHashMap.newKeySet();
+    private volatile boolean isShutdown = false;
 
     private ActorSystem(String name) {
+        this(name, DEFAULT_THROUGHPUT);
+    }
+
+    private ActorSystem(String name, int throughput) {
+        if (throughput <= 0) {
+            throw new IllegalArgumentException("throughput must be greater than 0");
+        }
         this.name = name;
+        this.throughput = throughput;
         if (name.toLowerCase().equals(DEFAULT_AS_NAME) && name2AS.containsKey(DEFAULT_AS_NAME)) {
             throw new IllegalStateException("actor system named '" + name + "' has exists!!!");
         }
     }
 
-    private ActorSystem(String name, ThreadManager threadManager) {
-        this(name);
+    private ActorSystem(String name, ThreadManager threadManager, int throughput) {
+        this(name, throughput);
         this.threadManager = threadManager;
     }
 
@@ -52,9 +97,24 @@ public class ActorSystem {
         return create(name, ThreadManager.DEFAULT);
     }
 
+    /**
+     * @param executorType 该actor system下actor的执行线程类型, actor内大量阻塞I/O时可选ExecutorType.VIRTUAL
+     */
+    public static ActorSystem create(String name, ExecutorType executorType) {
+        return create(name, new ThreadManager(executorType.getExecutor()));
+    }
+
     public static ActorSystem create(String name, ThreadManager threadManager) {
-        ActorSystem actorSystem = new ActorSystem(name, threadManager);
+        return create(name, threadManager, DEFAULT_THROUGHPUT);
+    }
+
+    /**
+     * @param throughput actor每次调度最多处理的邮件数, 之后让出线程; 1则每封邮件都经过一次线程池调度, 只适合需要严格公平的场景
+     */
+    public static ActorSystem create(String name, ThreadManager threadManager, int throughput) {
+        ActorSystem actorSystem = new ActorSystem(name, threadManager, throughput);
         name2AS.put(name, actorSystem);
+        actorSystem.registerMBean();
         return actorSystem;
     }
 
@@ -67,9 +127,8 @@ public class ActorSystem {
         if (!path2Actors.containsKey(actorPath.getPath())) {
             try {
                 Constructor<AA> constructor = claxx.getConstructor(ActorPath.class, ActorSystem.class);
-                AA actor = constructor.newInstance(actorPath, this);
-                add(actorPath, actor);
-                return actor;
+                //AbstractActor构造时会add
+                return constructor.newInstance(actorPath, this);
             } catch (NoSuchMethodException | IllegalAccessException | InstantiationException | InvocationTargetException e) {
                 ExceptionUtils.log(e);
                 return null;
@@ -79,6 +138,26 @@ public class ActorSystem {
         }
     }
 
+    /**
+     * 与{@link #actorOf(Class, String)}不同, 已存在同名actor或创建失败都抛异常
+     */
+    <AA extends AbstractActor<AA>> AA newActor(Class<AA> claxx, String name) {
+        ActorPath actorPath = ActorPath.as(name, this);
+        try {
+            Constructor<AA> constructor = claxx.getConstructor(ActorPath.class, ActorSystem.class);
+            //AbstractActor构造时会add, 已存在则抛异常
+            return constructor.newInstance(actorPath, this);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException("create actor '" + actorPath.getPath() + "' fail", cause);
+        } catch (NoSuchMethodException | IllegalAccessException | InstantiationException e) {
+            throw new IllegalStateException("create actor '" + actorPath.getPath() + "' fail", e);
+        }
+    }
+
     public <AA extends AbstractActor<AA>> AA actorOf(ActorPath actorPath) {
         return (AA) path2Actors.get(actorPath.getPath());
     }
@@ -88,27 +167,184 @@ public class ActorSystem {
         return (AA) path2Actors.get(actorPath.getPath());
     }
 
+    /**
+     * 创建@param routeeNum 个@param claxx 类型的routee, 由Router按@param strategy 分发消息
+     * routee名为@param name$n, 已存在同名router或routee则抛异常
+     */
+    public <AA extends AbstractActor<AA>> Router<AA> routerOf(Class<AA> claxx, String name, int routeeNum, RoutingStrategy strategy) {
+        ActorPath actorPath = ActorPath.as(name, this);
+        if (path2Routers.containsKey(actorPath.getPath())) {
+            throw new IllegalStateException("router of '" + actorPath.getPath() + "' has exists!!!");
+        }
+        Router<AA> router = new Router<>(name, this, claxx, routeeNum, strategy);
+        if (path2Routers.putIfAbsent(actorPath.getPath(), router) != null) {
+            router.stopNow();
+            throw new IllegalStateException("router of '" + actorPath.getPath() + "' has exists!!!");
+        }
+        return router;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <AA extends AbstractActor<AA>> Router<AA> routerOf(String name) {
+        ActorPath actorPath = ActorPath.as(name, this);
+        return (Router<AA>) path2Routers.get(actorPath.getPath());
+    }
+
+    void removeRouter(Router<?> router) {
+        path2Routers.remove(router.getPath().getPath(), router);
+    }
+
     public void add(ActorPath actorPath, AbstractActor aa) {
-        if (!path2Actors.containsKey(actorPath.getPath())) {
-            path2Actors.put(actorPath.getPath(), aa);
+        if (path2Actors.putIfAbsent(actorPath.getPath(), aa) != null) {
+            throw new IllegalStateException("actor of '" + actorPath.getPath() + "' has exists!!!");
         }
-        throw new IllegalStateException("actor of '" + actorPath.getPath() + "' has exists!!!");
     }
 
     public void remove(ActorPath actorPath) {
         AbstractActor actor = path2Actors.remove(actorPath.getPath());
-        actor.stop();
+        if (actor != null) {
+            actor.stop();
+        }
     }
 
     public String getRoot() {
         return name + "/";
     }
 
+    private ObjectName objectName() throws JMException {
+        return new ObjectName("org.kin.framework.actor:type=ActorSystem,name=" + ObjectName.quote(name));
+    }
+
+    private void registerMBean() {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = objectName();
+            //同名ActorSystem, 以最新的为准
+            if (mBeanServer.isRegistered(objectName)) {
+                mBeanServer.unregisterMBean(objectName);
+            }
+            mBeanServer.registerMBean(metrics, objectName);
+        } catch (JMException e) {
+            ExceptionUtils.log(e);
+        }
+    }
+
+    private void unregisterMBean() {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = objectName();
+            if (mBeanServer.isRegistered(objectName)) {
+                mBeanServer.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            ExceptionUtils.log(e);
+        }
+    }
+
+    /**
+     * 设置抽样统计消息处理耗时直方图的间隔, 1则统计每封邮件, 默认{@link #DEFAULT_PROFILE_SAMPLE_INTERVAL}
+     *
+     * @param interval 2的n次方
+     */
+    public void setProfileSampleInterval(int interval) {
+        if (interval <= 0 || Integer.bitCount(interval) != 1) {
+            throw new IllegalArgumentException("profile sample interval must be power of 2");
+        }
+        this.profileSampleMask = interval - 1;
+    }
+
+    /**
+     * 设置慢消息阈值, 处理耗时超过该值才打印日志
+     */
+    public void setSlowMailThreshold(long threshold, TimeUnit unit) {
+        this.slowMailThresholdNanos = unit.toNanos(threshold);
+    }
+
+    /**
+     * 登记未完成的ask请求, 完成后需调用{@link #removeAsk(CompletableFuture)}
+     *
+     * @return 是否登记成功, 已shutdown则令该请求失败并返回false
+     */
+    boolean addAsk(CompletableFuture<?> future) {
+        pendingAsks.add(future);
+        //先登记再检查, 与shutdown先标识再遍历配合, 保证不遗漏
+        if (isShutdown) {
+            failAsk(future);
+            return false;
+        }
+        return true;
+    }
+
+    void removeAsk(CompletableFuture<?> future) {
+        pendingAsks.remove(future);
+    }
+
+    private void failAsk(CompletableFuture<?> future) {
+        future.completeExceptionally(new IllegalStateException("actor system '" + name + "' has shutdown"));
+    }
+
+    /**
+     * 所有actor的ask请求共用一个时间轮, 超时后由该actor system的线程池complete
+     */
+    HashedWheelTimer getAskTimer() {
+        HashedWheelTimer askTimer = this.askTimer;
+        if (askTimer == null) {
+            synchronized (this) {
+                askTimer = this.askTimer;
+                if (askTimer == null) {
+                    askTimer = new HashedWheelTimer(threadManager, 10, TimeUnit.MILLISECONDS, 512);
+                    this.askTimer = askTimer;
+                }
+            }
+        }
+        return askTimer;
+    }
+
+    /**
+     * 设置之后新建的actor默认使用有界邮箱, 单个actor可通过{@link AbstractActor#boundMailbox}覆盖
+     *
+     * @param blockTimeout 仅{@link MailboxOverflowStrategy#BLOCK}策略有效
+     */
+    public void setDefaultMailboxBound(int capacity, MailboxOverflowStrategy strategy, long blockTimeout, TimeUnit unit) {
+        this.defaultMailboxBound = new ActorContext.MailboxBound(capacity, strategy, blockTimeout, unit);
+    }
+
+    ActorContext.MailboxBound getDefaultMailboxBound() {
+        return defaultMailboxBound;
+    }
+
+    int getProfileSampleMask() {
+        return profileSampleMask;
+    }
+
+    long getSlowMailThresholdNanos() {
+        return slowMailThresholdNanos;
+    }
+
+    void onSlowMail() {
+        slowMailCount.increment();
+    }
+
     public void shutdown() {
         name2AS.remove(name);
+        unregisterMBean();
+        //先停止router, 不再扩缩容
+        for (Router<?> router : path2Routers.values()) {
+            router.stop();
+        }
         for (AbstractActor actor : path2Actors.values()) {
             actor.stop();
         }
+        isShutdown = true;
+        //未完成的ask请求直接失败, 不再等待回复或超时
+        for (CompletableFuture<?> future : pendingAsks) {
+            failAsk(future);
+        }
+        HashedWheelTimer askTimer = this.askTimer;
+        if (askTimer != null) {
+            //请求均已失败, 其超时task无需再执行
+            askTimer.shutdownNow();
+        }
         //延迟1min关闭线程池
         Timer timer = new Timer();
         timer.schedule(new TimerTask() {
@@ -125,4 +361,108 @@ public class ActorSystem {
     public ThreadManager getThreadManager() {
         return threadManager;
     }
+
+    public int getThroughput() {
+        return throughput;
+    }
+
+    public ActorSystemMetricsMXBean getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return 死信通道, 可订阅溢出或Actor停止后的邮件
+     */
+    public DeadLetters getDeadLetters() {
+        return deadLetters;
+    }
+
+    //-----------------------------------------------------------------------------------------------
+
+    /**
+     * JMX读取时才遍历所有actor汇总, 不影响消息处理
+     */
+    private class Metrics implements ActorSystemMetricsMXBean {
+        @Override
+        public int getActorNum() {
+            Map<String, AbstractActor> path2Actors = ActorSystem.this.path2Actors;
+            return path2Actors != null ? path2Actors.size() : 0;
+        }
+
+        @Override
+        public Map<String, Integer> getMailBoxSizes() {
+            Map<String, Integer> result = new TreeMap<>();
+            Map<String, AbstractActor> path2Actors = ActorSystem.this.path2Actors;
+            if (path2Actors != null) {
+                for (Map.Entry<String, AbstractActor> entry : path2Actors.entrySet()) {
+                    result.put(entry.getKey(), entry.getValue().getActorContext().getMailBoxSize());
+                }
+            }
+            return result;
+        }
+
+        private Map<String, Long> collect(ToLongFunction<LatencyHistogram> function) {
+            Map<String, Long> result = new TreeMap<>();
+            Map<String, AbstractActor> path2Actors = ActorSystem.this.path2Actors;
+            if (path2Actors != null) {
+                for (Map.Entry<String, AbstractActor> entry : path2Actors.entrySet()) {
+                    Map<Class<?>, LatencyHistogram> latencies = entry.getValue().getActorContext().getMailLatencies();
+                    for (Map.Entry<Class<?>, LatencyHistogram> latencyEntry : latencies.entrySet()) {
+                        result.put(entry.getKey() + "#" + latencyEntry.getKey().getName(), function.applyAsLong(latencyEntry.getValue()));
+                    }
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public Map<String, Long> getHandleCounts() {
+            return collect(LatencyHistogram::getCount);
+        }
+
+        @Override
+        public Map<String, Long> getHandleMeanMicros() {
+            return collect(histogram -> TimeUnit.NANOSECONDS.toMicros((long) histogram.getMean()));
+        }
+
+        @Override
+        public Map<String, Long> getHandleP99Micros() {
+            return collect(histogram -> TimeUnit.NANOSECONDS.toMicros(histogram.getPercentile(0.99)));
+        }
+
+        @Override
+        public Map<String, Long> getHandleMaxMicros() {
+            return collect(histogram -> TimeUnit.NANOSECONDS.toMicros(histogram.getMax()));
+        }
+
+        @Override
+        public long getSlowMailCount() {
+            return slowMailCount.sum();
+        }
+
+        @Override
+        public Map<String, Long> getDeadLetterCounts() {
+            return deadLetters.getCounts();
+        }
+
+        @Override
+        public long getOverflowDeadLetterCount() {
+            return deadLetters.getOverflowCount();
+        }
+
+        @Override
+        public long getStoppedDeadLetterCount() {
+            return deadLetters.getStoppedCount();
+        }
+
+        @Override
+        public int getProfileSampleInterval() {
+            return profileSampleMask + 1;
+        }
+
+        @Override
+        public long getSlowMailThresholdMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(slowMailThresholdNanos);
+        }
+    }
 }
@@ -0,0 +1,65 @@
+package org.kin.framework.actor.impl;
+
+import java.util.Map;
+
+/**
+ * Created by huangjianqin on 2018/12/10.
+ * ActorSystem的JMX监控指标
+ * 消息处理耗时按actor及消息类型统计, key为"actor path#消息类型", 只统计被抽样的邮件(见{@link #getProfileSampleInterval()})
+ * 死信按actor及原因统计, key为"actor path#原因"
+ */
+public interface ActorSystemMetricsMXBean {
+    int getActorNum();
+
+    /**
+     * @return actor path -> 邮箱待处理邮件数
+     */
+    Map<String, Integer> getMailBoxSizes();
+
+    /**
+     * @return 抽样统计的消息处理次数
+     */
+    Map<String, Long> getHandleCounts();
+
+    /**
+     * @return 消息处理平均耗时, 微秒
+     */
+    Map<String, Long> getHandleMeanMicros();
+
+    /**
+     * @return 消息处理耗时p99, 微秒
+     */
+    Map<String, Long> getHandleP99Micros();
+
+    /**
+     * @return 消息处理最大耗时, 微秒
+     */
+    Map<String, Long> getHandleMaxMicros();
+
+    /**
+     * @return 耗时超过阈值的消息数, 不抽样, 每封邮件都检查
+     */
+    long getSlowMailCount();
+
+    /**
+     * @return 死信数
+     */
+    Map<String, Long> getDeadLetterCounts();
+
+    /**
+     * @return 有界邮箱溢出丢弃的邮件总数
+     */
+    long getOverflowDeadLetterCount();
+
+    /**
+     * @return Actor停止后收到或未处理的邮件总数
+     */
+    long getStoppedDeadLetterCount();
+
+    /**
+     * @return 每多少封邮件抽样统计一次处理耗时, 只影响耗时直方图(处理次数, 平均耗时, p99, 最大耗时), 不影响慢消息计数
+     */
+    int getProfileSampleInterval();
+
+    long getSlowMailThresholdMillis();
+}
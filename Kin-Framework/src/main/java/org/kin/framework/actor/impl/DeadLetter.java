@@ -0,0 +1,54 @@
+package org.kin.framework.actor.impl;
+
+import org.kin.framework.actor.domain.ActorPath;
+
+/**
+ * Created by huangjianqin on 2018/12/13.
+ * <p>
+ * 未能投递或处理的邮件
+ */
+public class DeadLetter {
+    public enum Reason {
+        /**
+         * 有界邮箱已满被丢弃
+         */
+        OVERFLOW,
+        /**
+         * Actor已停止
+         */
+        STOPPED,
+    }
+
+    private final ActorPath recipient;
+    //receive的消息或tell的Message
+    private final Object message;
+    private final Reason reason;
+
+    DeadLetter(ActorPath recipient, Object message, Reason reason) {
+        this.recipient = recipient;
+        this.message = message;
+        this.reason = reason;
+    }
+
+    //getter
+    public ActorPath getRecipient() {
+        return recipient;
+    }
+
+    public Object getMessage() {
+        return message;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+
+    @Override
+    public String toString() {
+        return "DeadLetter{" +
+                "recipient=" + recipient.getPath() +
+                ", message=" + message +
+                ", reason=" + reason +
+                '}';
+    }
+}
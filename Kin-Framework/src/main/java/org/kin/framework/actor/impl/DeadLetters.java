@@ -0,0 +1,93 @@
+package org.kin.framework.actor.impl;
+
+import org.kin.framework.actor.domain.ActorPath;
+import org.kin.framework.utils.ExceptionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Created by huangjianqin on 2018/12/13.
+ * <p>
+ * ActorSystem的死信通道, 按actor及原因计数, 可订阅死信
+ * 没有订阅者时只计数, 不创建{@link DeadLetter}
+ */
+public class DeadLetters {
+    private static final Logger log = LoggerFactory.getLogger("Actor");
+
+    private final LongAdder overflowCount = new LongAdder();
+    private final LongAdder stoppedCount = new LongAdder();
+    //"actor path#原因" -> 死信数
+    private final Map<String, LongAdder> counts = new ConcurrentHashMap<>();
+    private final List<Consumer<DeadLetter>> subscribers = new CopyOnWriteArrayList<>();
+
+    /**
+     * @return 该actor该原因的死信计数器, 由调用方缓存, 避免每封死信都拼接key
+     */
+    LongAdder counter(ActorPath recipient, DeadLetter.Reason reason) {
+        return counts.computeIfAbsent(recipient.getPath() + "#" + reason, k -> new LongAdder());
+    }
+
+    /**
+     * 发送线程或Actor执行线程调用
+     *
+     * @param counter {@link #counter(ActorPath, DeadLetter.Reason)}
+     */
+    void publish(ActorPath recipient, Object message, DeadLetter.Reason reason, LongAdder counter) {
+        (reason == DeadLetter.Reason.OVERFLOW ? overflowCount : stoppedCount).increment();
+        counter.increment();
+        if (log.isDebugEnabled()) {
+            log.debug("dead letter to '{}', reason: {}, message: {}", recipient.getPath(), reason, message);
+        }
+
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        DeadLetter deadLetter = new DeadLetter(recipient, message, reason);
+        for (Consumer<DeadLetter> subscriber : subscribers) {
+            try {
+                subscriber.accept(deadLetter);
+            } catch (Exception e) {
+                ExceptionUtils.log(e);
+            }
+        }
+    }
+
+    /**
+     * 在产生死信的线程(发送线程或Actor执行线程)回调, 不能阻塞
+     */
+    public void subscribe(Consumer<DeadLetter> subscriber) {
+        subscribers.add(subscriber);
+    }
+
+    public void unsubscribe(Consumer<DeadLetter> subscriber) {
+        subscribers.remove(subscriber);
+    }
+
+    //getter
+    public long getOverflowCount() {
+        return overflowCount.sum();
+    }
+
+    public long getStoppedCount() {
+        return stoppedCount.sum();
+    }
+
+    /**
+     * @return "actor path#原因" -> 死信数
+     */
+    public Map<String, Long> getCounts() {
+        Map<String, Long> result = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : counts.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().sum());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,92 @@
+package org.kin.framework.actor.impl;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Created by huangjianqin on 2018/12/9.
+ * Actor专用的无锁多生产者单消费者(MPSC)邮箱
+ * 邮件本身即链表节点, 入队只需一次原子交换(getAndSet), 不额外分配节点
+ * 出队由Actor当前执行线程完成, 不需原子操作
+ * <p>
+ * 与{@link org.kin.framework.concurrent.MpscQueue}一样, head为已消费的节点(哨兵), 其next才是队首邮件
+ */
+final class Mailbox {
+    private static final AtomicReferenceFieldUpdater<Mailbox, Node> TAIL_UPDATER =
+            AtomicReferenceFieldUpdater.newUpdater(Mailbox.class, Node.class, "tail");
+    private static final AtomicLongFieldUpdater<Mailbox> DEQUEUED_COUNT_UPDATER =
+            AtomicLongFieldUpdater.newUpdater(Mailbox.class, "dequeuedCount");
+
+    /**
+     * 邮箱节点, 即邮件, 只能入队一次
+     */
+    abstract static class Node {
+        private volatile Node next;
+    }
+
+    private static final class Stub extends Node {
+    }
+
+    //消费者线程读写
+    private Node head;
+    //生产者原子交换
+    private volatile Node tail;
+    //入队邮件数, 与已出队邮件数一起估算邮箱大小
+    private final LongAdder enqueuedCount = new LongAdder();
+    //出队邮件数, 只由消费者线程写
+    private volatile long dequeuedCount;
+
+    Mailbox() {
+        Node stub = new Stub();
+        this.head = stub;
+        this.tail = stub;
+    }
+
+    /**
+     * 任意线程调用
+     */
+    void offer(Node node) {
+        enqueuedCount.increment();
+        Node prev = TAIL_UPDATER.getAndSet(this, node);
+        //原子交换后, 需把前驱节点链接过来, 期间消费者看到的是未链接完成的状态
+        prev.next = node;
+    }
+
+    /**
+     * 消费者线程调用
+     *
+     * @return 队首邮件, 邮箱为空返回null
+     */
+    Node poll() {
+        Node current = head;
+        Node next = current.next;
+        if (next == null) {
+            if (current == tail) {
+                return null;
+            }
+            //生产者已交换tail但还未链接, 只差一条指令, 自旋等待即可
+            while ((next = current.next) == null) {
+                Thread.yield();
+            }
+        }
+        head = next;
+        //只用于估算大小, lazySet避免每封邮件都有StoreLoad屏障
+        DEQUEUED_COUNT_UPDATER.lazySet(this, dequeuedCount + 1);
+        return next;
+    }
+
+    /**
+     * 消费者线程调用, 与{@link #offer(Node)}的原子交换构成Dekker式同步, 可作为放弃调度前的最后检查
+     */
+    boolean isEmpty() {
+        return head == tail;
+    }
+
+    /**
+     * 估算值, 仅用于统计及负载均衡
+     */
+    int size() {
+        return (int) Math.max(enqueuedCount.sum() - dequeuedCount, 0);
+    }
+}
@@ -0,0 +1,12 @@
+package org.kin.framework.actor.impl;
+
+/**
+ * Created by huangjianqin on 2018/12/13.
+ * <p>
+ * 有界邮箱已满, 邮件被拒绝
+ */
+public class MailboxOverflowException extends RuntimeException {
+    public MailboxOverflowException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,28 @@
+package org.kin.framework.actor.impl;
+
+/**
+ * Created by huangjianqin on 2018/12/13.
+ * <p>
+ * 有界邮箱满时的处理策略, 被丢弃的邮件都会进入{@link DeadLetters}
+ */
+public enum MailboxOverflowStrategy {
+    /**
+     * 阻塞发送线程直到邮箱有空位, 超时则丢弃该邮件
+     * 不要在Actor线程向自己或可能反向阻塞的Actor发送, 否则只能等到超时
+     */
+    BLOCK,
+    /**
+     * 丢弃新邮件
+     */
+    DROP_NEWEST,
+    /**
+     * 丢弃邮箱中最旧的邮件
+     * 设置该策略后, 邮件改为进入加锁的队列, 邮箱满时由发送线程持锁淘汰最旧的邮件再入队,
+     * 计入容量的邮件数不会超过容量(设置前已入队的邮件除外), 代价是收发都需加锁
+     */
+    DROP_OLDEST,
+    /**
+     * 丢弃新邮件并向发送线程抛出{@link MailboxOverflowException}
+     */
+    REJECT,
+}
@@ -2,14 +2,11 @@ package org.kin.framework.actor.impl;
 
 import org.kin.framework.actor.Receive;
 import org.kin.framework.actor.domain.PoisonPill;
-import org.kin.framework.utils.ExceptionUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
-import java.util.function.Predicate;
+import java.util.*;
+import java.util.concurrent.CompletionException;
 
 /**
  * Created by huangjianqin on 2018/6/5.
@@ -18,7 +15,7 @@ import java.util.function.Predicate;
  */
 public class ReceiveBuilder {
     private static final Logger log = LoggerFactory.getLogger("Actor");
-    //match和matchEqual根据定义顺序排序,matchAny总是在match和matchEqual之后执行，并且也是根据定义顺序排序
+    //match和matchEqual根据定义顺序执行,matchAny总是在match和matchEqual之后执行，并且也是根据定义顺序执行
     private List<FuncWrapper> funcWrappers = new ArrayList<>();
 
     private ReceiveBuilder() {
@@ -49,70 +46,52 @@ public class ReceiveBuilder {
     }
 
     public Receive build() {
-        Collections.sort(this.funcWrappers);
-        return new InternalReceive(Collections.unmodifiableList(this.funcWrappers));
+        return new InternalReceive(new ArrayList<>(this.funcWrappers));
     }
 
     //-----------------------------------------------------------------------------------------------
 
     /**
-     * Predicate用于匹配message
-     * Comparable用于排序方法
+     * 定义的匹配方法
      */
-    private abstract class FuncWrapper<AA extends AbstractActor<AA>, T> implements Predicate, Comparable {
+    private abstract class FuncWrapper<AA extends AbstractActor<AA>, T> {
         private final Receive.Func<AA, T> func;
 
         protected FuncWrapper(Receive.Func<AA, T> func) {
             this.func = func;
         }
 
-        void checkAndExecute(AA applier, Object oArg) {
-            if (test(oArg)) {
-                try {
-                    func.apply(applier, (T) oArg);
-                } catch (Exception e) {
-                    ExceptionUtils.log(e);
-                }
+        /**
+         * 异常直接抛给Actor, 由其记录日志并令ask请求失败, checked exception包装成{@link CompletionException}
+         */
+        @SuppressWarnings("unchecked")
+        void execute(AbstractActor applier, Object oArg) {
+            try {
+                func.apply((AA) applier, (T) oArg);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new CompletionException(e);
             }
         }
     }
 
     private class TypeMatchFuncWrapper<AA extends AbstractActor<AA>, T> extends FuncWrapper<AA, T> {
-        private Class<T> type;
+        private final Class<T> type;
 
         private TypeMatchFuncWrapper(Class<T> type, Receive.Func<AA, T> func) {
             super(func);
             this.type = type;
         }
-
-        @Override
-        public int compareTo(Object o) {
-            return 0;
-        }
-
-        @Override
-        public boolean test(Object o) {
-            return type.isInstance(o);
-        }
     }
 
     private class MatchEqualFuncWrapper<AA extends AbstractActor<AA>, T> extends FuncWrapper<AA, T> {
-        private T t;
+        private final T t;
 
         protected MatchEqualFuncWrapper(T t, Receive.Func<AA, T> func) {
             super(func);
             this.t = t;
         }
-
-        @Override
-        public int compareTo(Object o) {
-            return 0;
-        }
-
-        @Override
-        public boolean test(Object o) {
-            return t.equals(o);
-        }
     }
 
     private class MatchAnyFuncWrapper<AA extends AbstractActor<AA>, T> extends FuncWrapper<AA, T> {
@@ -120,33 +99,151 @@ public class ReceiveBuilder {
         protected MatchAnyFuncWrapper(Receive.Func<AA, T> func) {
             super(func);
         }
+    }
 
-        @Override
-        public int compareTo(Object o) {
-            return 1;
+    //-----------------------------------------------------------------------------------------------
+
+    /**
+     * 预编译后的匹配步骤
+     */
+    private interface Step {
+        void execute(AbstractActor applier, Object message);
+    }
+
+    /**
+     * 已按消息类型确定匹配的方法, 直接执行
+     */
+    private static final class FuncStep implements Step {
+        private final FuncWrapper funcWrapper;
+
+        private FuncStep(FuncWrapper funcWrapper) {
+            this.funcWrapper = funcWrapper;
         }
 
         @Override
-        public boolean test(Object o) {
-            return true;
+        public void execute(AbstractActor applier, Object message) {
+            funcWrapper.execute(applier, message);
         }
+    }
+
+    /**
+     * 连续定义的matchEqual, 按值hash查找匹配的方法(同值多个方法按定义顺序)
+     */
+    private static final class EqualStep implements Step {
+        private final Map<Object, FuncWrapper[]> value2Funcs;
 
+        private EqualStep(Map<Object, FuncWrapper[]> value2Funcs) {
+            this.value2Funcs = value2Funcs;
+        }
+
+        @Override
+        public void execute(AbstractActor applier, Object message) {
+            FuncWrapper[] funcWrappers = value2Funcs.get(message);
+            if (funcWrappers != null) {
+                for (FuncWrapper funcWrapper : funcWrappers) {
+                    funcWrapper.execute(applier, message);
+                }
+            }
+        }
     }
 
     //-----------------------------------------------------------------------------------------------
+
+    /**
+     * 按消息类型缓存预编译的匹配步骤, 每条消息只需一次hash查找及一次equal hash查找, 与定义的方法数无关
+     * 每个Actor各自build, 只由其执行线程访问, 因此缓存不需同步; 不用ClassValue, 避免大量Actor往各消息类的全局表注册
+     */
     private class InternalReceive implements Receive {
+        //match和matchEqual, 按定义顺序
         private final List<FuncWrapper> funcWrappers;
+        //matchAny, 按定义顺序
+        private final Step[] anySteps;
+        //消息类型 -> 预编译的匹配步骤
+        private final Map<Class<?>, Step[]> stepsCache = new HashMap<>();
 
         private InternalReceive(List<FuncWrapper> funcWrappers) {
-            this.funcWrappers = funcWrappers;
+            List<FuncWrapper> matchFuncWrappers = new ArrayList<>();
+            List<Step> anySteps = new ArrayList<>();
+            for (FuncWrapper funcWrapper : funcWrappers) {
+                if (funcWrapper instanceof MatchAnyFuncWrapper) {
+                    anySteps.add(new FuncStep(funcWrapper));
+                } else {
+                    matchFuncWrappers.add(funcWrapper);
+                }
+            }
+            this.funcWrappers = matchFuncWrappers;
+            this.anySteps = anySteps.toArray(new Step[0]);
+        }
+
+        /**
+         * 按定义顺序, 保留该消息类型匹配的match, 连续的matchEqual合并为一次hash查找, 最后是matchAny
+         */
+        private Step[] compile(Class<?> type) {
+            List<Step> steps = new ArrayList<>();
+            Map<Object, List<FuncWrapper>> equalRun = null;
+            for (FuncWrapper funcWrapper : funcWrappers) {
+                if (funcWrapper instanceof MatchEqualFuncWrapper) {
+                    if (equalRun == null) {
+                        equalRun = new HashMap<>();
+                    }
+                    equalRun.computeIfAbsent(((MatchEqualFuncWrapper) funcWrapper).t, k -> new ArrayList<>()).add(funcWrapper);
+                    continue;
+                }
+                if (equalRun != null) {
+                    steps.add(toEqualStep(equalRun));
+                    equalRun = null;
+                }
+                if (((TypeMatchFuncWrapper) funcWrapper).type.isAssignableFrom(type)) {
+                    steps.add(new FuncStep(funcWrapper));
+                }
+            }
+            if (equalRun != null) {
+                steps.add(toEqualStep(equalRun));
+            }
+            Collections.addAll(steps, anySteps);
+            return steps.toArray(new Step[0]);
+        }
+
+        private Step[] steps(Class<?> type) {
+            Step[] steps = stepsCache.get(type);
+            if (steps == null) {
+                steps = compile(type);
+                stepsCache.put(type, steps);
+            }
+            return steps;
         }
 
+        private Step toEqualStep(Map<Object, List<FuncWrapper>> equalRun) {
+            Map<Object, FuncWrapper[]> value2Funcs = new HashMap<>(equalRun.size() * 2);
+            for (Map.Entry<Object, List<FuncWrapper>> entry : equalRun.entrySet()) {
+                value2Funcs.put(entry.getKey(), entry.getValue().toArray(new FuncWrapper[0]));
+            }
+            return new EqualStep(value2Funcs);
+        }
+
+        @Override
+        public boolean matches(Object message) {
+            if (message == null) {
+                return anySteps.length > 0;
+            }
+            Step[] steps = steps(message.getClass());
+            if (steps.length == 0) {
+                return false;
+            }
+            for (Step step : steps) {
+                if (!(step instanceof EqualStep) || ((EqualStep) step).value2Funcs.containsKey(message)) {
+                    return true;
+                }
+            }
+            return false;
+        }
 
         @Override
         public <AA extends AbstractActor<AA>, T> void receive(AA applier, T message) {
-            for (FuncWrapper funcWrapper : funcWrappers) {
-                //所有匹配的方法都会处理该条message
-                funcWrapper.checkAndExecute(applier, message);
+            //所有匹配的方法都会处理该条message, 某方法抛出异常后, 后续匹配的方法不再执行
+            Step[] steps = message != null ? steps(message.getClass()) : anySteps;
+            for (Step step : steps) {
+                step.execute(applier, message);
             }
         }
     }
@@ -0,0 +1,300 @@
+package org.kin.framework.actor.impl;
+
+import org.kin.framework.actor.Actor;
+import org.kin.framework.actor.Message;
+import org.kin.framework.actor.domain.ActorPath;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Created by huangjianqin on 2018/12/12.
+ * <p>
+ * 将消息按{@link RoutingStrategy}分发给一组同类型的routee, 用于把热点Actor扩展到多核
+ * Router本身没有邮箱, 在发送消息的线程直接选routee并投递, 不增加一次调度
+ * <p>
+ * 可选根据邮箱压力动态调整routee数, 扩缩容都只增删最后一个routee, 一致性hash策略下只有少量key会换routee
+ * 缩容不阻塞发送, 被移除的routee处理完退役前的邮件才停止, 退役后收到的邮件重新路由, 不会进入死信通道
+ * 一致性hash策略下, 换routee的key可能与旧routee中未处理的邮件乱序
+ */
+public class Router<AA extends AbstractActor<AA>> implements Actor<AA> {
+    private static final Logger log = LoggerFactory.getLogger("Actor");
+
+    private final ActorPath actorPath;
+    private final ActorSystem actorSystem;
+    private final Class<AA> routeeClass;
+    private final RoutingStrategy strategy;
+    //copy-on-write, 发送线程无锁读取
+    private volatile AbstractActor<?>[] routees;
+    //routee名字后缀, 只增不减, 防止与正在停止的旧routee重名
+    private final AtomicInteger routeeSeq = new AtomicInteger();
+
+    //动态调整routee数
+    private int lowerBound;
+    private int upperBound;
+    //邮箱待处理邮件数达到该值视为有压力
+    private int pressureThreshold;
+    private Future<?> resizeFuture;
+    private boolean isStopped;
+
+    Router(String name, ActorSystem actorSystem, Class<AA> routeeClass, int routeeNum, RoutingStrategy strategy) {
+        if (routeeNum <= 0) {
+            throw new IllegalArgumentException("routee num must be greater than 0");
+        }
+        this.actorPath = ActorPath.as(name, actorSystem);
+        this.actorSystem = actorSystem;
+        this.routeeClass = routeeClass;
+        this.strategy = strategy;
+        AbstractActor<?>[] routees = new AbstractActor<?>[routeeNum];
+        try {
+            for (int i = 0; i < routeeNum; i++) {
+                routees[i] = newRoutee();
+            }
+        } catch (RuntimeException e) {
+            for (AbstractActor<?> routee : routees) {
+                if (routee != null) {
+                    routee.stopNow();
+                }
+            }
+            throw e;
+        }
+        this.routees = routees;
+    }
+
+    /**
+     * 已存在同名actor则抛异常, 不能把别的actor当作routee
+     */
+    private AA newRoutee() {
+        return actorSystem.newActor(routeeClass, actorPath.getName() + "$" + routeeSeq.getAndIncrement());
+    }
+
+    /**
+     * 定时检查routee邮箱, 所有routee都有压力则增加一个routee, 所有routee邮箱都为空则减少一个routee
+     *
+     * @param pressureThreshold 邮箱待处理邮件数达到该值视为有压力
+     */
+    public synchronized Router<AA> enableResize(int lowerBound, int upperBound, int pressureThreshold, long period, TimeUnit unit) {
+        if (lowerBound <= 0 || upperBound < lowerBound) {
+            throw new IllegalArgumentException("require 0 < lowerBound <= upperBound");
+        }
+        if (pressureThreshold <= 0) {
+            throw new IllegalArgumentException("pressure threshold must be greater than 0");
+        }
+        this.lowerBound = lowerBound;
+        this.upperBound = upperBound;
+        this.pressureThreshold = pressureThreshold;
+        if (isStopped) {
+            return this;
+        }
+        if (resizeFuture != null) {
+            resizeFuture.cancel(false);
+        }
+        resizeFuture = actorSystem.getThreadManager().scheduleAtFixedRate(this::resize, period, period, unit);
+        return this;
+    }
+
+    private synchronized void resize() {
+        if (isStopped) {
+            return;
+        }
+        AbstractActor<?>[] routees = this.routees;
+        int pressured = 0;
+        int idle = 0;
+        for (AbstractActor<?> routee : routees) {
+            int size = routee.getActorContext().getMailBoxSize();
+            if (size >= pressureThreshold) {
+                pressured++;
+            } else if (size == 0) {
+                idle++;
+            }
+        }
+
+        if ((pressured == routees.length && routees.length < upperBound) || routees.length < lowerBound) {
+            AbstractActor<?>[] newRoutees = Arrays.copyOf(routees, routees.length + 1);
+            newRoutees[routees.length] = newRoutee();
+            this.routees = newRoutees;
+            log.info("router '{}' routee num increase to {}", actorPath.getPath(), newRoutees.length);
+        } else if (idle == routees.length && routees.length > lowerBound) {
+            shrink(routees);
+        }
+    }
+
+    /**
+     * 移除最后一个routee, 不阻塞发送
+     * 先切换routee, 新的发送不再选中该routee; 再向其发送不受容量限制的退役邮件, 处理到该邮件时停止,
+     * 之后到达该routee的邮件(仍持有旧routee数组的发送线程)重新经Router路由
+     */
+    @SuppressWarnings("unchecked")
+    private void shrink(AbstractActor<?>[] routees) {
+        AA removed = (AA) routees[routees.length - 1];
+        AbstractActor<?>[] newRoutees = Arrays.copyOf(routees, routees.length - 1);
+        this.routees = newRoutees;
+        removed.getActorContext().retire(this);
+        log.info("router '{}' routee num decrease to {}", actorPath.getPath(), newRoutees.length);
+    }
+
+    //-----------------------------------------------------------------------------------------------
+
+    @Override
+    public <T> void receive(T message) {
+        receive(message, false);
+    }
+
+    /**
+     * @param rerouted 是否是已移除的routee退役后收到的邮件, 广播的邮件其他routee都已收到, 不再重复投递
+     */
+    private <T> void receive(T message, boolean rerouted) {
+        AbstractActor<?>[] routees = this.routees;
+        int selected = strategy.select(message, routees);
+        if (selected == RoutingStrategy.BROADCAST) {
+            if (rerouted) {
+                return;
+            }
+            for (AbstractActor<?> routee : routees) {
+                routee.receive(message);
+            }
+        } else {
+            routees[selected].receive(message);
+        }
+    }
+
+    @Override
+    public void tell(Message<AA> message) {
+        tell(message, false);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void tell(Message<AA> message, boolean rerouted) {
+        AbstractActor<?>[] routees = this.routees;
+        int selected = strategy.select(message, routees);
+        if (selected == RoutingStrategy.BROADCAST) {
+            if (rerouted) {
+                return;
+            }
+            for (AbstractActor<?> routee : routees) {
+                ((AA) routee).tell(message);
+            }
+        } else {
+            ((AA) routees[selected]).tell(message);
+        }
+    }
+
+    /**
+     * 广播时, 以第一个回复为准, 全部失败才以最后一个异常完成
+     */
+    @Override
+    public <T, R> CompletableFuture<R> ask(T message, long timeout, TimeUnit unit) {
+        return ask(message, timeout, unit, false);
+    }
+
+    /**
+     * @return rerouted且广播时返回null
+     */
+    private <T, R> CompletableFuture<R> ask(T message, long timeout, TimeUnit unit, boolean rerouted) {
+        AbstractActor<?>[] routees = this.routees;
+        int selected = strategy.select(message, routees);
+        if (selected != RoutingStrategy.BROADCAST) {
+            return routees[selected].ask(message, timeout, unit);
+        }
+        if (rerouted) {
+            return null;
+        }
+
+        CompletableFuture<R> future = new CompletableFuture<>();
+        AtomicInteger remaining = new AtomicInteger(routees.length);
+        for (AbstractActor<?> routee : routees) {
+            routee.<T, R>ask(message, timeout, unit).whenComplete((result, throwable) -> {
+                if (throwable == null) {
+                    future.complete(result);
+                } else if (remaining.decrementAndGet() == 0) {
+                    future.completeExceptionally(throwable);
+                }
+            });
+        }
+        return future;
+    }
+
+    /**
+     * 已移除的routee退役后收到的邮件, 重新路由到当前的routee, 在该routee执行线程或发送线程执行
+     */
+    <T> void reroute(T message) {
+        receive(message, true);
+    }
+
+    void rerouteTell(Message<AA> message) {
+        tell(message, true);
+    }
+
+    /**
+     * @return 广播的请求返回null, 由其他routee回复
+     */
+    <T, R> CompletableFuture<R> rerouteAsk(T message, long timeoutNanos) {
+        return ask(message, timeoutNanos, TimeUnit.NANOSECONDS, true);
+    }
+
+    @Override
+    public Future<?> schedule(Message<AA> message, long delay, TimeUnit unit) {
+        //到期时才选routee
+        return actorSystem.getThreadManager().schedule(() -> tell(message), delay, unit);
+    }
+
+    @Override
+    public Future<?> scheduleAtFixedRate(Message<AA> message, long initialDelay, long period, TimeUnit unit) {
+        return actorSystem.getThreadManager().scheduleAtFixedRate(() -> tell(message), initialDelay, period, unit);
+    }
+
+    @Override
+    public void stop() {
+        for (AbstractActor<?> routee : markStopped()) {
+            routee.stop();
+        }
+    }
+
+    @Override
+    public void stopNow() {
+        for (AbstractActor<?> routee : markStopped()) {
+            routee.stopNow();
+        }
+    }
+
+    /**
+     * 与resize互斥, 之后不再增删routee
+     *
+     * @return 需要停止的routee
+     */
+    private synchronized AbstractActor<?>[] markStopped() {
+        isStopped = true;
+        if (resizeFuture != null) {
+            resizeFuture.cancel(false);
+            resizeFuture = null;
+        }
+        actorSystem.removeRouter(this);
+        return routees;
+    }
+
+    @Override
+    public ActorPath getPath() {
+        return actorPath;
+    }
+
+    //getter
+    @SuppressWarnings("unchecked")
+    public List<AA> getRoutees() {
+        return Collections.unmodifiableList(Arrays.asList((AA[]) routees));
+    }
+
+    public int getRouteeNum() {
+        return routees.length;
+    }
+
+    public RoutingStrategy getStrategy() {
+        return strategy;
+    }
+}
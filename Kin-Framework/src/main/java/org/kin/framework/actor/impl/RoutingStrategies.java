@@ -0,0 +1,114 @@
+package org.kin.framework.actor.impl;
+
+import org.kin.framework.concurrent.Partitioner;
+import org.kin.framework.concurrent.impl.JumpConsistentHashPartitioner;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Created by huangjianqin on 2018/12/12.
+ * <p>
+ * 常用的routee选择策略
+ */
+public final class RoutingStrategies {
+    private RoutingStrategies() {
+    }
+
+    /**
+     * 轮询, 每个Router需使用独立的实例
+     */
+    public static RoutingStrategy roundRobin() {
+        return new RoundRobin();
+    }
+
+    public static RoutingStrategy random() {
+        return Random.INSTANCE;
+    }
+
+    /**
+     * 选邮箱待处理邮件最少的routee, 需遍历所有routee, routee较多时有一定开销
+     */
+    public static RoutingStrategy smallestMailbox() {
+        return SmallestMailbox.INSTANCE;
+    }
+
+    /**
+     * 相同key的消息总是发给同一个routee, 可保证同一key的消息顺序处理
+     * routee数变化时, 只有约1/n的key会换routee
+     *
+     * @param keyMapper 消息 -> key, tell的{@link org.kin.framework.actor.Message}一般是lambda, 其key应另外指定
+     */
+    public static RoutingStrategy consistentHash(Function<Object, Object> keyMapper) {
+        return new ConsistentHash(keyMapper);
+    }
+
+    public static RoutingStrategy broadcast() {
+        return Broadcast.INSTANCE;
+    }
+
+    //-----------------------------------------------------------------------------------------------
+    private static class RoundRobin implements RoutingStrategy {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public int select(Object message, AbstractActor<?>[] routees) {
+            return (counter.getAndIncrement() & Integer.MAX_VALUE) % routees.length;
+        }
+    }
+
+    private static class Random implements RoutingStrategy {
+        private static final Random INSTANCE = new Random();
+
+        @Override
+        public int select(Object message, AbstractActor<?>[] routees) {
+            return ThreadLocalRandom.current().nextInt(routees.length);
+        }
+    }
+
+    private static class SmallestMailbox implements RoutingStrategy {
+        private static final SmallestMailbox INSTANCE = new SmallestMailbox();
+
+        @Override
+        public int select(Object message, AbstractActor<?>[] routees) {
+            int selected = 0;
+            int minSize = Integer.MAX_VALUE;
+            for (int i = 0; i < routees.length; i++) {
+                int size = routees[i].getActorContext().getMailBoxSize();
+                if (size == 0) {
+                    //空邮箱, 不可能更少了
+                    return i;
+                }
+                if (size < minSize) {
+                    minSize = size;
+                    selected = i;
+                }
+            }
+            return selected;
+        }
+    }
+
+    private static class ConsistentHash implements RoutingStrategy {
+        private final Partitioner<Object> partitioner = new JumpConsistentHashPartitioner<>();
+        private final Function<Object, Object> keyMapper;
+
+        private ConsistentHash(Function<Object, Object> keyMapper) {
+            this.keyMapper = keyMapper;
+        }
+
+        @Override
+        public int select(Object message, AbstractActor<?>[] routees) {
+            return partitioner.toPartition(keyMapper.apply(message), routees.length);
+        }
+    }
+
+    private static class Broadcast implements RoutingStrategy {
+        private static final Broadcast INSTANCE = new Broadcast();
+
+        @Override
+        public int select(Object message, AbstractActor<?>[] routees) {
+            return BROADCAST;
+        }
+    }
+}
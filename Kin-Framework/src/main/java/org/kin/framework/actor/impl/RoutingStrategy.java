@@ -0,0 +1,20 @@
+package org.kin.framework.actor.impl;
+
+/**
+ * Created by huangjianqin on 2018/12/12.
+ * <p>
+ * Router选择routee的策略, 在发送消息的线程执行, 需线程安全
+ * 常用策略见{@link RoutingStrategies}
+ */
+public interface RoutingStrategy {
+    /**
+     * 发给所有routee
+     */
+    int BROADCAST = -1;
+
+    /**
+     * @param routees 当前所有routee, 不为空, 不能修改
+     * @return 选中的routee下标, 返回{@link #BROADCAST}则发给所有routee
+     */
+    int select(Object message, AbstractActor<?>[] routees);
+}
@@ -0,0 +1,203 @@
+package org.kin.framework.concurrent;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Created by huangjianqin on 2018/11/26.
+ * 单个executor的监控指标, 由{@link InstrumentedExecutorService}记录
+ * 记录方法只更新计数器与直方图, 不分配对象
+ * 抽样记录时, 一个被抽样的task按抽样间隔计数, 执行完成数, 异常数及正在执行数为估算值
+ */
+public class ExecutorMetrics implements ExecutorMetricsMXBean {
+    private final String name;
+    //被监控的executor, 用于获取线程池状态
+    private final ExecutorService executor;
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder started = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder active = new LongAdder();
+    private final LatencyHistogram queueWait = new LatencyHistogram();
+    private final LatencyHistogram execution = new LatencyHistogram();
+
+    //上一次计算吞吐量时的数据
+    private long lastCompleted;
+    private long lastThroughputNanos = System.nanoTime();
+
+    public ExecutorMetrics(String name, ExecutorService executor) {
+        this.name = name;
+        this.executor = executor;
+    }
+
+    //-----------------------------------------------------------------------------------------------------------
+    void onSubmit() {
+        submitted.increment();
+    }
+
+    void onReject() {
+        rejected.increment();
+    }
+
+    /**
+     * @param weight 该task代表的task数, 即抽样间隔
+     */
+    void onStart(long queueWaitNanos, int weight) {
+        started.add(weight);
+        active.add(weight);
+        queueWait.record(queueWaitNanos);
+    }
+
+    void onComplete(long executionNanos, boolean success, int weight) {
+        active.add(-weight);
+        completed.add(weight);
+        if (!success) {
+            failed.add(weight);
+        }
+        execution.record(executionNanos);
+    }
+
+    //-----------------------------------------------------------------------------------------------------------
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getSubmitted() {
+        return submitted.sum();
+    }
+
+    @Override
+    public long getCompleted() {
+        return completed.sum();
+    }
+
+    @Override
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    @Override
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    @Override
+    public synchronized double getThroughput() {
+        long now = System.nanoTime();
+        long completed = this.completed.sum();
+        double throughput = (completed - lastCompleted) * 1e9 / Math.max(now - lastThroughputNanos, 1);
+        lastCompleted = completed;
+        lastThroughputNanos = now;
+        return throughput;
+    }
+
+    @Override
+    public long getActiveCount() {
+        return active.sum();
+    }
+
+    @Override
+    public long getQueueDepth() {
+        if (executor instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) executor).getQueue().size();
+        }
+        if (executor instanceof ForkJoinPool) {
+            return ((ForkJoinPool) executor).getQueuedSubmissionCount();
+        }
+        return -1;
+    }
+
+    @Override
+    public int getPoolSize() {
+        if (executor instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) executor).getPoolSize();
+        }
+        if (executor instanceof ForkJoinPool) {
+            return ((ForkJoinPool) executor).getPoolSize();
+        }
+        return -1;
+    }
+
+    @Override
+    public int getMaximumPoolSize() {
+        if (executor instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) executor).getMaximumPoolSize();
+        }
+        if (executor instanceof ForkJoinPool) {
+            return ((ForkJoinPool) executor).getParallelism();
+        }
+        return -1;
+    }
+
+    @Override
+    public long getQueueWaitP50Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(queueWait.getPercentile(0.5));
+    }
+
+    @Override
+    public long getQueueWaitP99Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(queueWait.getPercentile(0.99));
+    }
+
+    @Override
+    public long getQueueWaitMaxMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(queueWait.getMax());
+    }
+
+    @Override
+    public long getExecutionP50Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(execution.getPercentile(0.5));
+    }
+
+    @Override
+    public long getExecutionP99Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(execution.getPercentile(0.99));
+    }
+
+    @Override
+    public long getExecutionMaxMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(execution.getMax());
+    }
+
+    @Override
+    public double getExecutionMeanMicros() {
+        return execution.getMean() / 1000;
+    }
+
+    @Override
+    public void resetHistograms() {
+        queueWait.reset();
+        execution.reset();
+    }
+
+    //getter
+    public LatencyHistogram getQueueWait() {
+        return queueWait;
+    }
+
+    public LatencyHistogram getExecution() {
+        return execution;
+    }
+
+    @Override
+    public String toString() {
+        return "ExecutorMetrics{" +
+                "name='" + name + '\'' +
+                ", submitted=" + getSubmitted() +
+                ", completed=" + getCompleted() +
+                ", failed=" + getFailed() +
+                ", rejected=" + getRejected() +
+                ", active=" + getActiveCount() +
+                ", queueDepth=" + getQueueDepth() +
+                ", queueWaitP99=" + getQueueWaitP99Micros() + "us" +
+                ", executionP99=" + getExecutionP99Micros() + "us" +
+                '}';
+    }
+}
@@ -0,0 +1,79 @@
+package org.kin.framework.concurrent;
+
+/**
+ * Created by huangjianqin on 2018/11/26.
+ * ThreadManager执行线程/调度线程的JMX监控指标
+ * 耗时类指标单位为微秒
+ * execute()抽样统计, 执行完成数, 异常数, 吞吐量及正在执行数为按抽样间隔放大的估算值
+ */
+public interface ExecutorMetricsMXBean {
+    String getName();
+
+    /**
+     * 累计提交task数, 周期task只算一次
+     */
+    long getSubmitted();
+
+    /**
+     * 累计执行完成task数, 周期task每执行一次算一次
+     */
+    long getCompleted();
+
+    /**
+     * 累计执行抛异常task数
+     */
+    long getFailed();
+
+    /**
+     * 累计被拒绝task数
+     */
+    long getRejected();
+
+    /**
+     * 距离上一次调用该方法的平均每秒执行完成task数
+     */
+    double getThroughput();
+
+    /**
+     * 正在执行的task数
+     */
+    long getActiveCount();
+
+    /**
+     * 等待执行的task数, 未知则返回-1
+     */
+    long getQueueDepth();
+
+    /**
+     * 线程池当前线程数, 未知则返回-1
+     */
+    int getPoolSize();
+
+    /**
+     * 线程池最大线程数, 未知则返回-1
+     */
+    int getMaximumPoolSize();
+
+    /**
+     * 执行线程: 提交到开始执行的等待时间
+     * 调度线程: 实际开始执行时间与预期执行时间的延迟
+     */
+    long getQueueWaitP50Micros();
+
+    long getQueueWaitP99Micros();
+
+    long getQueueWaitMaxMicros();
+
+    long getExecutionP50Micros();
+
+    long getExecutionP99Micros();
+
+    long getExecutionMaxMicros();
+
+    double getExecutionMeanMicros();
+
+    /**
+     * 清空耗时统计
+     */
+    void resetHistograms();
+}
@@ -1,5 +1,9 @@
 package org.kin.framework.concurrent;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ForkJoinPool;
@@ -19,6 +23,22 @@ public enum ExecutorType {
         public ExecutorService getExecutor() {
             return Executors.newCachedThreadPool();
         }
+    },
+    /**
+     * 每个task一条虚拟线程, 适合大量阻塞I/O的task, 阻塞时不占用平台线程
+     * 需JDK21+, 否则退化为THREADPOOL
+     */
+    VIRTUAL("Virtual") {
+        @Override
+        public ExecutorService getExecutor() {
+            ExecutorService executor = VirtualThreadSupport.newExecutor();
+            if (executor != null) {
+                return executor;
+            }
+            VirtualThreadSupport.log.warn("virtual thread is not supported in java {}, fallback to {}",
+                    System.getProperty("java.version"), THREADPOOL.getName());
+            return THREADPOOL.getExecutor();
+        }
     };
     private String name;
 
@@ -42,6 +62,52 @@ public enum ExecutorType {
         return name;
     }
 
+    /**
+     * 当前JVM是否支持虚拟线程, 即{@link #VIRTUAL}是否不会退化为{@link #THREADPOOL}
+     */
+    public static boolean isVirtualThreadSupported() {
+        return VirtualThreadSupport.FACTORY != null;
+    }
+
+    /**
+     * 以反射方式调用Executors.newVirtualThreadPerTaskExecutor(), 保证在java8下仍可编译运行
+     * 类加载时实际创建并关闭一次executor确认是否可用, 之后按该结果判断
+     */
+    private static class VirtualThreadSupport {
+        private static final Logger log = LoggerFactory.getLogger(ExecutorType.class);
+        //可用才不为null
+        private static final Method FACTORY;
+
+        static {
+            Method factory = null;
+            try {
+                factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                ((ExecutorService) factory.invoke(null)).shutdown();
+            } catch (NoSuchMethodException e) {
+                //java19以下
+                factory = null;
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                //java19/20未开启预览特性时, 会抛出包装了UnsupportedOperationException的InvocationTargetException
+                log.warn("virtual thread executor is unavailable", e);
+                factory = null;
+            }
+            FACTORY = factory;
+        }
+
+        private static ExecutorService newExecutor() {
+            if (FACTORY == null) {
+                return null;
+            }
+            try {
+                return (ExecutorService) FACTORY.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                //已确认可用, 理论上不会发生
+                log.warn("create virtual thread executor fail", e);
+                return null;
+            }
+        }
+    }
+
     private static class UnknownExecutorTypeException extends RuntimeException {
         public UnknownExecutorTypeException() {
         }
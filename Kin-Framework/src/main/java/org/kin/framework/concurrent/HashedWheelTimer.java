@@ -0,0 +1,555 @@
+package org.kin.framework.concurrent;
+
+import com.google.common.base.Preconditions;
+import org.kin.framework.utils.ExceptionUtils;
+import org.kin.framework.utils.SysUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Created by huangjianqin on 2018/11/24.
+ * 基于哈希时间轮的调度器, 可作为ThreadManager的调度部分
+ * <p>
+ * 调度与取消都是O(1): 生产者仅将timeout放入无锁队列, 由唯一的worker线程在每个tick将其挂到对应的桶上
+ * 到期的task交由执行线程池执行, worker线程不执行task本身
+ * <p>
+ * 调度精度为一个tick, 适合大量低精度的延迟/周期task(比如actor的定时消息), 不适合对精度要求高的场景
+ * <p>
+ * 关闭语义与ScheduledThreadPoolExecutor默认一致: shutdown()后已调度的延迟task仍会到期执行, 周期task不再调度
+ */
+public class HashedWheelTimer extends AbstractExecutorService implements ScheduledExecutorService {
+    private static final Logger log = LoggerFactory.getLogger(HashedWheelTimer.class);
+    //worker线程状态
+    private static final int WORKER_INIT = 0;
+    private static final int WORKER_STARTED = 1;
+    //不再接受新task, 已调度的延迟task执行完后worker线程退出
+    private static final int WORKER_SHUTDOWN = 2;
+    //worker线程立即退出, 未到期的task不再执行
+    private static final int WORKER_STOP = 3;
+    //每个tick最多转移的新增timeout数, 防止大量调度时worker线程一直不推进时间轮
+    private static final int MAX_TRANSFER_PER_TICK = 100_000;
+
+    //tick间隔
+    private final long tickDuration;
+    //时间轮
+    private final Bucket[] wheel;
+    private final int mask;
+    //执行到期task的线程池
+    private final ExecutorService taskExecutor;
+    //taskExecutor是否由本timer创建, 是则随timer一起关闭
+    private final boolean ownTaskExecutor;
+    //新增的timeout, 由worker线程挂到桶上
+    private final Queue<ScheduledTask<?>> pendingTimeouts = new MpscQueue<>();
+    //取消的timeout, 由worker线程从桶上移除
+    private final Queue<ScheduledTask<?>> cancelledTimeouts = new MpscQueue<>();
+    private final Worker worker;
+    private final Thread workerThread;
+    private final AtomicInteger workerState = new AtomicInteger(WORKER_INIT);
+    //worker线程启动时间, timeout的deadline都是相对于该时间
+    private volatile long startTime;
+    private final CountDownLatch startTimeInitialized = new CountDownLatch(1);
+    //worker线程退出时未执行的task
+    private final List<Runnable> unprocessed = Collections.synchronizedList(new ArrayList<>());
+
+    public HashedWheelTimer() {
+        this(10, TimeUnit.MILLISECONDS, 512);
+    }
+
+    public HashedWheelTimer(long tickDuration, TimeUnit unit, int ticksPerWheel) {
+        this(Executors.newFixedThreadPool(SysUtils.getSuitableThreadNum()), true, tickDuration, unit, ticksPerWheel);
+    }
+
+    /**
+     * @param taskExecutor  执行到期task的线程池, 关闭timer时不会关闭该线程池
+     * @param tickDuration  tick间隔, 即调度精度
+     * @param ticksPerWheel 时间轮大小, 会向上取整为2的n次方
+     */
+    public HashedWheelTimer(ExecutorService taskExecutor, long tickDuration, TimeUnit unit, int ticksPerWheel) {
+        this(taskExecutor, false, tickDuration, unit, ticksPerWheel);
+    }
+
+    private HashedWheelTimer(ExecutorService taskExecutor, boolean ownTaskExecutor, long tickDuration, TimeUnit unit, int ticksPerWheel) {
+        Preconditions.checkArgument(tickDuration > 0, "tickDuration must be positive");
+        Preconditions.checkArgument(ticksPerWheel > 0 && ticksPerWheel <= 1 << 30, "ticksPerWheel must be in (0, 2^30]");
+        this.tickDuration = Math.max(unit.toNanos(tickDuration), TimeUnit.MILLISECONDS.toNanos(1));
+        int wheelSize = 1;
+        while (wheelSize < ticksPerWheel) {
+            wheelSize <<= 1;
+        }
+        this.wheel = new Bucket[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = wheelSize - 1;
+        this.taskExecutor = taskExecutor;
+        this.ownTaskExecutor = ownTaskExecutor;
+        this.worker = new Worker();
+        this.workerThread = new Thread(worker, "HashedWheelTimer-worker");
+        this.workerThread.setDaemon(true);
+    }
+
+    /**
+     * 第一次调度时才启动worker线程
+     */
+    private void start() {
+        switch (workerState.get()) {
+            case WORKER_INIT:
+                if (workerState.compareAndSet(WORKER_INIT, WORKER_STARTED)) {
+                    workerThread.start();
+                }
+                break;
+            case WORKER_STARTED:
+                break;
+            default:
+                throw new RejectedExecutionException("timer has been shutdown");
+        }
+
+        //等待worker线程初始化startTime, 不响应中断, 但保留中断标识
+        boolean interrupted = false;
+        while (startTime == 0) {
+            try {
+                startTimeInitialized.await();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 调用前需先start(), deadline依赖worker线程初始化的startTime
+     */
+    private <V> ScheduledTask<V> newTimeout(ScheduledTask<V> task) {
+        pendingTimeouts.offer(task);
+        //与shutdown并发, worker线程可能已退出, 视为shutdown后提交
+        if (isShutdown() && task.cancel(false)) {
+            throw new RejectedExecutionException("timer has been shutdown");
+        }
+        return task;
+    }
+
+    /**
+     * @return 相对于startTime的deadline
+     */
+    private long deadline(long delay, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(Math.max(delay, 0)) - startTime;
+        //防止溢出
+        if (delay > 0 && deadline < 0) {
+            deadline = Long.MAX_VALUE;
+        }
+        return deadline;
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(@Nonnull Runnable command, long delay, @Nonnull TimeUnit unit) {
+        start();
+        return newTimeout(new ScheduledTask<Void>(command, null, deadline(delay, unit), 0));
+    }
+
+    @Override
+    public <V> ScheduledFuture<V> schedule(@Nonnull Callable<V> callable, long delay, @Nonnull TimeUnit unit) {
+        start();
+        return newTimeout(new ScheduledTask<>(callable, deadline(delay, unit), 0));
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(@Nonnull Runnable command, long initialDelay, long period, @Nonnull TimeUnit unit) {
+        Preconditions.checkArgument(period > 0, "period must be positive");
+        start();
+        return newTimeout(new ScheduledTask<Void>(command, null, deadline(initialDelay, unit), unit.toNanos(period)));
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(@Nonnull Runnable command, long initialDelay, long delay, @Nonnull TimeUnit unit) {
+        Preconditions.checkArgument(delay > 0, "delay must be positive");
+        start();
+        return newTimeout(new ScheduledTask<Void>(command, null, deadline(initialDelay, unit), -unit.toNanos(delay)));
+    }
+
+    @Override
+    public void execute(@Nonnull Runnable command) {
+        if (isShutdown()) {
+            throw new RejectedExecutionException("timer has been shutdown");
+        }
+        taskExecutor.execute(command);
+    }
+
+    /**
+     * 不再接受新task, 已调度的延迟task仍会到期执行, 周期task不再调度
+     * worker线程在所有延迟task到期后退出
+     */
+    @Override
+    public void shutdown() {
+        for (; ; ) {
+            int state = workerState.get();
+            if (state >= WORKER_SHUTDOWN) {
+                return;
+            }
+            if (workerState.compareAndSet(state, WORKER_SHUTDOWN)) {
+                if (state == WORKER_INIT && ownTaskExecutor) {
+                    //worker线程从未启动
+                    taskExecutor.shutdown();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * 停止worker线程, 未到期的task不再执行
+     *
+     * @return 未到期的task
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        if (workerState.getAndSet(WORKER_STOP) != WORKER_INIT && Thread.currentThread() != workerThread) {
+            boolean interrupted = false;
+            while (workerThread.isAlive()) {
+                workerThread.interrupt();
+                try {
+                    workerThread.join(100);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (ownTaskExecutor) {
+            taskExecutor.shutdown();
+        }
+        synchronized (unprocessed) {
+            return new ArrayList<>(unprocessed);
+        }
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return workerState.get() >= WORKER_SHUTDOWN;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return isShutdown() && !workerThread.isAlive() && (!ownTaskExecutor || taskExecutor.isTerminated());
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, @Nonnull TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        if (workerThread.isAlive()) {
+            TimeUnit.NANOSECONDS.timedJoin(workerThread, unit.toNanos(timeout));
+        }
+        if (ownTaskExecutor) {
+            return taskExecutor.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS) && isTerminated();
+        }
+        return isTerminated();
+    }
+
+    /**
+     * 到期, 交由执行线程池执行
+     */
+    private void fire(ScheduledTask<?> task) {
+        try {
+            taskExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.cancel(false);
+        }
+    }
+
+    //-----------------------------------------------------------------------------------------------------------
+
+    private final class Worker implements Runnable {
+        private long tick;
+        //挂在桶上的timeout数
+        private int scheduled;
+
+        @Override
+        public void run() {
+            long now = System.nanoTime();
+            //0作为未初始化的标识
+            startTime = now == 0 ? 1 : now;
+            startTimeInitialized.countDown();
+
+            boolean periodicCancelled = false;
+            for (; ; ) {
+                int state = workerState.get();
+                if (state == WORKER_STOP) {
+                    break;
+                }
+                if (state == WORKER_SHUTDOWN) {
+                    if (!periodicCancelled) {
+                        cancelPeriodic();
+                        periodicCancelled = true;
+                    }
+                    //已调度的延迟task全部到期
+                    if (scheduled == 0 && pendingTimeouts.isEmpty()) {
+                        break;
+                    }
+                }
+                long deadline = waitForNextTick();
+                if (deadline <= 0) {
+                    continue;
+                }
+                removeCancelled();
+                transferTimeoutsToBuckets();
+                wheel[(int) (tick & mask)].expire(deadline);
+                tick++;
+            }
+            if (ownTaskExecutor) {
+                //已到期的task仍会执行
+                taskExecutor.shutdown();
+            }
+
+            //收集未执行的task
+            for (Bucket bucket : wheel) {
+                bucket.clear(unprocessed);
+            }
+            ScheduledTask<?> task;
+            while ((task = pendingTimeouts.poll()) != null) {
+                if (!task.isCancelled()) {
+                    unprocessed.add(task);
+                }
+            }
+            removeCancelled();
+        }
+
+        /**
+         * sleep至下一个tick
+         *
+         * @return 当前tick的deadline(相对于startTime), 被shutdown中断则返回-1
+         */
+        private long waitForNextTick() {
+            long deadline = tickDuration * (tick + 1);
+            for (; ; ) {
+                long currentTime = System.nanoTime() - startTime;
+                long sleepMs = (deadline - currentTime + 999_999) / 1_000_000;
+                if (sleepMs <= 0) {
+                    return currentTime;
+                }
+                try {
+                    Thread.sleep(sleepMs);
+                } catch (InterruptedException e) {
+                    if (workerState.get() == WORKER_STOP) {
+                        return -1;
+                    }
+                }
+            }
+        }
+
+        private void transferTimeoutsToBuckets() {
+            for (int i = 0; i < MAX_TRANSFER_PER_TICK; i++) {
+                ScheduledTask<?> task = pendingTimeouts.poll();
+                if (task == null) {
+                    break;
+                }
+                if (task.isCancelled()) {
+                    continue;
+                }
+                if (task.isPeriodic() && isShutdown()) {
+                    task.cancel(false);
+                    continue;
+                }
+                long calculated = task.deadline / tickDuration;
+                task.remainingRounds = (calculated - tick) / wheel.length;
+                //已过期的放到当前tick, 马上执行
+                long ticks = Math.max(calculated, tick);
+                wheel[(int) (ticks & mask)].add(task);
+            }
+        }
+
+        /**
+         * shutdown后桶上的周期task不再调度
+         */
+        private void cancelPeriodic() {
+            for (Bucket bucket : wheel) {
+                for (ScheduledTask<?> task = bucket.head; task != null; task = task.next) {
+                    if (task.isPeriodic()) {
+                        //由removeCancelled()从桶上移除
+                        task.cancel(false);
+                    }
+                }
+            }
+        }
+
+        private void removeCancelled() {
+            ScheduledTask<?> task;
+            while ((task = cancelledTimeouts.poll()) != null) {
+                if (task.bucket != null) {
+                    task.bucket.remove(task);
+                }
+            }
+        }
+    }
+
+    /**
+     * 时间轮的桶, 双向链表, 只由worker线程访问
+     */
+    private final class Bucket {
+        private ScheduledTask<?> head;
+        private ScheduledTask<?> tail;
+
+        private void add(ScheduledTask<?> task) {
+            worker.scheduled++;
+            task.bucket = this;
+            if (head == null) {
+                head = tail = task;
+            } else {
+                tail.next = task;
+                task.prev = tail;
+                tail = task;
+            }
+        }
+
+        private void expire(long deadline) {
+            ScheduledTask<?> task = head;
+            while (task != null) {
+                ScheduledTask<?> next = task.next;
+                if (task.remainingRounds <= 0) {
+                    remove(task);
+                    if (task.deadline > deadline) {
+                        //不应出现, 挂错桶; 不能抛异常终止worker线程, 记录后仍执行
+                        log.error("task.deadline ({}) > deadline ({}), fire it anyway", task.deadline, deadline);
+                    }
+                    fire(task);
+                } else if (task.isCancelled()) {
+                    remove(task);
+                } else {
+                    task.remainingRounds--;
+                }
+                task = next;
+            }
+        }
+
+        private void remove(ScheduledTask<?> task) {
+            worker.scheduled--;
+            ScheduledTask<?> next = task.next;
+            if (task.prev != null) {
+                task.prev.next = next;
+            }
+            if (next != null) {
+                next.prev = task.prev;
+            }
+            if (task == head) {
+                if (task == tail) {
+                    tail = null;
+                    head = null;
+                } else {
+                    head = next;
+                }
+            } else if (task == tail) {
+                tail = task.prev;
+            }
+            task.prev = null;
+            task.next = null;
+            task.bucket = null;
+        }
+
+        private void clear(List<Runnable> unprocessed) {
+            ScheduledTask<?> task;
+            while ((task = head) != null) {
+                remove(task);
+                if (!task.isCancelled()) {
+                    unprocessed.add(task);
+                }
+            }
+        }
+    }
+
+    /**
+     * 调度task, 同时也是时间轮的链表节点
+     */
+    private final class ScheduledTask<V> extends FutureTask<V> implements RunnableScheduledFuture<V> {
+        //相对于startTime的deadline, 周期task每次执行后更新
+        private volatile long deadline;
+        //>0 fixed rate, <0 fixed delay, 0 非周期
+        private final long period;
+
+        //以下只由worker线程访问
+        private long remainingRounds;
+        private Bucket bucket;
+        private ScheduledTask<?> prev;
+        private ScheduledTask<?> next;
+
+        private ScheduledTask(Runnable runnable, V result, long deadline, long period) {
+            super(runnable, result);
+            this.deadline = deadline;
+            this.period = period;
+        }
+
+        private ScheduledTask(Callable<V> callable, long deadline, long period) {
+            super(callable);
+            this.deadline = deadline;
+            this.period = period;
+        }
+
+        @Override
+        public boolean isPeriodic() {
+            return period != 0;
+        }
+
+        @Override
+        public long getDelay(@Nonnull TimeUnit unit) {
+            return unit.convert(deadline - (System.nanoTime() - startTime), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(@Nonnull Delayed o) {
+            if (o == this) {
+                return 0;
+            }
+            if (o instanceof ScheduledTask) {
+                return Long.compare(deadline, ((ScheduledTask<?>) o).deadline);
+            }
+            return Long.compare(getDelay(TimeUnit.NANOSECONDS), o.getDelay(TimeUnit.NANOSECONDS));
+        }
+
+        @Override
+        public void run() {
+            if (!isPeriodic()) {
+                super.run();
+            } else if (super.runAndReset()) {
+                //周期task, 计算下次deadline并重新调度
+                if (period > 0) {
+                    deadline += period;
+                } else {
+                    deadline = System.nanoTime() - startTime - period;
+                }
+                if (isShutdown()) {
+                    cancel(false);
+                } else {
+                    pendingTimeouts.offer(this);
+                }
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) {
+                //由worker线程从桶上移除, 若此时timeout还在pendingTimeouts, worker线程转移时会跳过
+                cancelledTimeouts.offer(this);
+            }
+            return cancelled;
+        }
+
+        @Override
+        protected void setException(Throwable t) {
+            super.setException(t);
+            if (isPeriodic()) {
+                //与ScheduledThreadPoolExecutor一致, 周期task抛异常后不再调度
+                ExceptionUtils.log(t);
+            }
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package org.kin.framework.concurrent;
+
+import javax.annotation.Nonnull;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Created by huangjianqin on 2018/11/26.
+ * ExecutorService装饰器, 统计task排队时间, 执行时间, 吞吐量及拒绝数
+ * <p>
+ * submit()直接以带提交时间的FutureTask入队, 不额外包装
+ * execute()需包装一层以记录提交时间, 该路径(比如actor调度)调用频繁, 因此抽样包装, 未被抽样的task直接提交
+ * 被抽样的task按抽样间隔计入执行完成数等计数, 记录本身不分配对象, 也不打印日志
+ */
+public class InstrumentedExecutorService extends AbstractExecutorService {
+    //execute()默认抽样间隔
+    private static final int DEFAULT_SAMPLE_INTERVAL = 16;
+
+    private final ExecutorService delegate;
+    protected final ExecutorMetrics metrics;
+    //execute()抽样间隔 - 1
+    private volatile int sampleMask = DEFAULT_SAMPLE_INTERVAL - 1;
+
+    public InstrumentedExecutorService(String name, ExecutorService delegate) {
+        this.delegate = delegate;
+        this.metrics = new ExecutorMetrics(name, delegate);
+    }
+
+    /**
+     * 设置execute()抽样统计的间隔, 1则统计每个task
+     *
+     * @param interval 2的n次方
+     */
+    public void setSampleInterval(int interval) {
+        if (interval <= 0 || Integer.bitCount(interval) != 1) {
+            throw new IllegalArgumentException("sample interval must be power of 2");
+        }
+        this.sampleMask = interval - 1;
+    }
+
+    @Override
+    public void execute(@Nonnull Runnable command) {
+        Runnable task = command;
+        if (!(command instanceof TimedFutureTask)) {
+            int sampleMask = this.sampleMask;
+            //线程本地随机数抽样, 不竞争共享计数器
+            if (sampleMask == 0 || (ThreadLocalRandom.current().nextInt() & sampleMask) == 0) {
+                task = new TimedTask<Void>(command, System.nanoTime(), 0, sampleMask + 1);
+            }
+        }
+        metrics.onSubmit();
+        try {
+            delegate.execute(task);
+        } catch (RejectedExecutionException e) {
+            metrics.onReject();
+            throw e;
+        }
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+        return new TimedFutureTask<>(Executors.callable(runnable, value));
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+        return new TimedFutureTask<>(callable);
+    }
+
+    @Override
+    public void shutdown() {
+        delegate.shutdown();
+    }
+
+    @Nonnull
+    @Override
+    public List<Runnable> shutdownNow() {
+        return delegate.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return delegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, @Nonnull TimeUnit unit) throws InterruptedException {
+        return delegate.awaitTermination(timeout, unit);
+    }
+
+    //getter
+    public ExecutorMetrics getMetrics() {
+        return metrics;
+    }
+
+    //-----------------------------------------------------------------------------------------------------------
+
+    /**
+     * submit()的task, 构造时即记录提交时间
+     */
+    private final class TimedFutureTask<V> extends FutureTask<V> {
+        private final long submitNanos = System.nanoTime();
+        private boolean success = true;
+
+        private TimedFutureTask(Callable<V> callable) {
+            super(callable);
+        }
+
+        @Override
+        public void run() {
+            long startNanos = System.nanoTime();
+            metrics.onStart(startNanos - submitNanos, 1);
+            try {
+                super.run();
+            } finally {
+                metrics.onComplete(System.nanoTime() - startNanos, success, 1);
+            }
+        }
+
+        @Override
+        protected void setException(Throwable t) {
+            success = false;
+            super.setException(t);
+        }
+    }
+
+    /**
+     * execute()被抽样的task及调度的task
+     */
+    protected final class TimedTask<V> implements Runnable, Callable<V> {
+        private final Runnable runnable;
+        private final Callable<V> callable;
+        //预期开始执行的时间
+        private long dueNanos;
+        //>0 fixed rate, <0 fixed delay, 0 非周期
+        private final long period;
+        //代表的task数, 即抽样间隔
+        private final int weight;
+
+        TimedTask(Runnable runnable, long dueNanos, long period) {
+            this(runnable, dueNanos, period, 1);
+        }
+
+        TimedTask(Runnable runnable, long dueNanos, long period, int weight) {
+            this.runnable = runnable;
+            this.callable = null;
+            this.dueNanos = dueNanos;
+            this.period = period;
+            this.weight = weight;
+        }
+
+        TimedTask(Callable<V> callable, long dueNanos) {
+            this.runnable = null;
+            this.callable = callable;
+            this.dueNanos = dueNanos;
+            this.period = 0;
+            this.weight = 1;
+        }
+
+        @Override
+        public void run() {
+            try {
+                call();
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Exception e) {
+                //runnable不会抛checked exception
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public V call() throws Exception {
+            long startNanos = System.nanoTime();
+            metrics.onStart(startNanos - dueNanos, weight);
+            boolean success = false;
+            try {
+                V result;
+                if (runnable != null) {
+                    runnable.run();
+                    result = null;
+                } else {
+                    result = callable.call();
+                }
+                success = true;
+                return result;
+            } finally {
+                long endNanos = System.nanoTime();
+                metrics.onComplete(endNanos - startNanos, success, weight);
+                //周期task的下次预期执行时间, 只会被同一个task串行更新
+                if (period > 0) {
+                    dueNanos += period;
+                } else if (period < 0) {
+                    dueNanos = endNanos - period;
+                }
+            }
+        }
+    }
+}
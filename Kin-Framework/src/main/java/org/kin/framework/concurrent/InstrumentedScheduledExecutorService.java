@@ -0,0 +1,69 @@
+package org.kin.framework.concurrent;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.*;
+
+/**
+ * Created by huangjianqin on 2018/11/26.
+ * ScheduledExecutorService装饰器
+ * 调度task的排队时间为实际开始执行时间与预期执行时间的延迟, 反映调度线程是否饱和
+ */
+public class InstrumentedScheduledExecutorService extends InstrumentedExecutorService implements ScheduledExecutorService {
+    private final ScheduledExecutorService delegate;
+
+    public InstrumentedScheduledExecutorService(String name, ScheduledExecutorService delegate) {
+        super(name, delegate);
+        this.delegate = delegate;
+    }
+
+    private <F extends ScheduledFuture<?>> F onRejected(RejectedExecutionException e) {
+        metrics.onReject();
+        throw e;
+    }
+
+    @Nonnull
+    @Override
+    public ScheduledFuture<?> schedule(@Nonnull Runnable command, long delay, @Nonnull TimeUnit unit) {
+        metrics.onSubmit();
+        try {
+            return delegate.schedule((Runnable) new TimedTask<Void>(command, System.nanoTime() + unit.toNanos(delay), 0), delay, unit);
+        } catch (RejectedExecutionException e) {
+            return onRejected(e);
+        }
+    }
+
+    @Nonnull
+    @Override
+    public <V> ScheduledFuture<V> schedule(@Nonnull Callable<V> callable, long delay, @Nonnull TimeUnit unit) {
+        metrics.onSubmit();
+        try {
+            return delegate.schedule((Callable<V>) new TimedTask<>(callable, System.nanoTime() + unit.toNanos(delay)), delay, unit);
+        } catch (RejectedExecutionException e) {
+            return onRejected(e);
+        }
+    }
+
+    @Nonnull
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(@Nonnull Runnable command, long initialDelay, long period, @Nonnull TimeUnit unit) {
+        metrics.onSubmit();
+        try {
+            TimedTask<Void> task = new TimedTask<>(command, System.nanoTime() + unit.toNanos(initialDelay), unit.toNanos(period));
+            return delegate.scheduleAtFixedRate(task, initialDelay, period, unit);
+        } catch (RejectedExecutionException e) {
+            return onRejected(e);
+        }
+    }
+
+    @Nonnull
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(@Nonnull Runnable command, long initialDelay, long delay, @Nonnull TimeUnit unit) {
+        metrics.onSubmit();
+        try {
+            TimedTask<Void> task = new TimedTask<>(command, System.nanoTime() + unit.toNanos(initialDelay), -unit.toNanos(delay));
+            return delegate.scheduleWithFixedDelay(task, initialDelay, delay, unit);
+        } catch (RejectedExecutionException e) {
+            return onRejected(e);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package org.kin.framework.concurrent;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Created by huangjianqin on 2018/11/26.
+ * 线程安全的对数分桶直方图, 用于统计耗时分布
+ * 每个2的幂区间再细分为8个子桶, 分位数相对误差不超过12.5%
+ * <p>
+ * record()不分配对象, 不加锁, 可在热点路径调用
+ */
+public class LatencyHistogram {
+    //每个2的幂区间细分的子桶数 = 2^SUB_BITS
+    private static final int SUB_BITS = 3;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BUCKET_NUM = (Long.SIZE - SUB_BITS + 1) * SUB_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_NUM);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param value 非负值, 负数按0统计
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(index(value));
+        count.increment();
+        sum.add(value);
+        long curMax;
+        while (value > (curMax = max.get()) && !max.compareAndSet(curMax, value)) {
+            //retry
+        }
+    }
+
+    /**
+     * @param percentile (0, 1]
+     * @return 对应分位数所在桶的上界, 没有数据则返回0
+     */
+    public long getPercentile(double percentile) {
+        long[] snapshot = new long[BUCKET_NUM];
+        long total = 0;
+        for (int i = 0; i < BUCKET_NUM; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile * total));
+        long accumulated = 0;
+        for (int i = 0; i < BUCKET_NUM; i++) {
+            accumulated += snapshot[i];
+            if (accumulated >= target) {
+                return Math.min(upperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public double getMean() {
+        long count = this.count.sum();
+        return count == 0 ? 0 : (double) sum.sum() / count;
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_NUM; i++) {
+            counts.set(i, 0);
+        }
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+
+    private static int index(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exp - SUB_BITS)) & (SUB_COUNT - 1);
+        return (exp - SUB_BITS + 1) * SUB_COUNT + sub;
+    }
+
+    /**
+     * @return 桶内最大值
+     */
+    private static long upperBound(int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+        int exp = index / SUB_COUNT + SUB_BITS - 1;
+        int sub = index % SUB_COUNT;
+        long lowerBound = (1L << exp) | ((long) sub << (exp - SUB_BITS));
+        return lowerBound + (1L << (exp - SUB_BITS)) - 1;
+    }
+}
@@ -0,0 +1,153 @@
+package org.kin.framework.concurrent;
+
+import java.util.AbstractQueue;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.Consumer;
+
+/**
+ * Created by huangjianqin on 2018/11/12.
+ * 无锁多生产者单消费者(MPSC)无界队列
+ * 生产者仅一次原子交换(getAndSet)即可完成入队, 不加锁, 不会阻塞
+ * <p>
+ * 注意: poll/peek/drain只能由同一消费者线程调用
+ * size()需遍历链表, 为O(n), 仅用于统计
+ */
+public class MpscQueue<E> extends AbstractQueue<E> {
+    //消费者持有, 永远指向哨兵节点
+    private Node<E> head;
+    //生产者竞争
+    private final AtomicReference<Node<E>> tail;
+
+    public MpscQueue() {
+        Node<E> stub = new Node<>(null);
+        head = stub;
+        tail = new AtomicReference<>(stub);
+    }
+
+    @Override
+    public boolean offer(E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        Node<E> node = new Node<>(e);
+        Node<E> prev = tail.getAndSet(node);
+        //交换tail与链接next之间, 消费者可能短暂看不到该节点, 消费者会自旋等待链接完成
+        prev.lazySetNext(node);
+        return true;
+    }
+
+    @Override
+    public E poll() {
+        Node<E> next = head.next;
+        if (next == null) {
+            if (head == tail.get()) {
+                return null;
+            }
+            //生产者已交换tail但未链接next, 等待其完成
+            while ((next = head.next) == null) {
+                //spin
+            }
+        }
+        E value = next.value;
+        //next成为新的哨兵节点
+        next.value = null;
+        head = next;
+        return value;
+    }
+
+    @Override
+    public E peek() {
+        Node<E> next = head.next;
+        if (next == null) {
+            if (head == tail.get()) {
+                return null;
+            }
+            while ((next = head.next) == null) {
+                //spin
+            }
+        }
+        return next.value;
+    }
+
+    /**
+     * 批量出队, 最多消费@param limit个元素
+     *
+     * @return 实际消费元素个数
+     */
+    public int drain(Consumer<? super E> consumer, int limit) {
+        int count = 0;
+        E e;
+        while (count < limit && (e = poll()) != null) {
+            count++;
+            consumer.accept(e);
+        }
+        return count;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        //只比较tail, 与生产者的getAndSet构成happen-before, 可作为消费者park前的最后检查
+        return head == tail.get();
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        Node<E> node = head;
+        Node<E> last = tail.get();
+        while (node != last && size < Integer.MAX_VALUE) {
+            Node<E> next = node.next;
+            if (next == null) {
+                break;
+            }
+            node = next;
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * 弱一致性迭代器, 不支持remove
+     */
+    @Override
+    public Iterator<E> iterator() {
+        return new Iterator<E>() {
+            private Node<E> node = head.next;
+
+            @Override
+            public boolean hasNext() {
+                return node != null;
+            }
+
+            @Override
+            public E next() {
+                if (node == null) {
+                    throw new NoSuchElementException();
+                }
+                E value = node.value;
+                node = node.next;
+                return value;
+            }
+        };
+    }
+
+    private static class Node<E> {
+        @SuppressWarnings("rawtypes")
+        private static final AtomicReferenceFieldUpdater<Node, Node> NEXT_UPDATER =
+                AtomicReferenceFieldUpdater.newUpdater(Node.class, Node.class, "next");
+
+        private E value;
+        private volatile Node<E> next;
+
+        Node(E value) {
+            this.value = value;
+        }
+
+        void lazySetNext(Node<E> next) {
+            NEXT_UPDATER.lazySet(this, next);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package org.kin.framework.concurrent;
+
+/**
+ * Created by huangjianqin on 2018/11/16.
+ * PartitionTaskExecutor某一分区的负载快照
+ * 速率类指标是距离上一次采样的平均值
+ */
+public class PartitionStats {
+    //分区
+    private final int partition;
+    //积压task数
+    private final long queueDepth;
+    //累计已执行task数
+    private final long completed;
+    //每秒执行task数
+    private final double tasksPerSecond;
+    //分区执行线程忙碌时间占比, [0, 1]
+    private final double busyRatio;
+
+    public PartitionStats(int partition, long queueDepth, long completed, double tasksPerSecond, double busyRatio) {
+        this.partition = partition;
+        this.queueDepth = queueDepth;
+        this.completed = completed;
+        this.tasksPerSecond = tasksPerSecond;
+        this.busyRatio = busyRatio;
+    }
+
+    @Override
+    public String toString() {
+        return "PartitionStats{" +
+                "partition=" + partition +
+                ", queueDepth=" + queueDepth +
+                ", completed=" + completed +
+                ", tasksPerSecond=" + String.format("%.1f", tasksPerSecond) +
+                ", busyRatio=" + String.format("%.2f", busyRatio) +
+                '}';
+    }
+
+    //getter
+    public int getPartition() {
+        return partition;
+    }
+
+    public long getQueueDepth() {
+        return queueDepth;
+    }
+
+    public long getCompleted() {
+        return completed;
+    }
+
+    public double getTasksPerSecond() {
+        return tasksPerSecond;
+    }
+
+    public double getBusyRatio() {
+        return busyRatio;
+    }
+}
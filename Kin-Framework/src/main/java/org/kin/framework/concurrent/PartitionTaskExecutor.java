@@ -1,202 +1,894 @@
 package org.kin.framework.concurrent;
 
 import com.google.common.base.Preconditions;
-import org.kin.framework.concurrent.impl.HashPartitioner;
+import org.kin.framework.concurrent.impl.BlockingWaitStrategy;
+import org.kin.framework.concurrent.impl.JumpConsistentHashPartitioner;
+import org.kin.framework.concurrent.impl.SpinYieldParkWaitStrategy;
 import org.kin.framework.utils.ExceptionUtils;
+import org.kin.framework.utils.SysUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
+import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * Created by huangjianqin on 2017/10/26.
  * 利用Task的某种属性将task分区,从而达到统一类的task按submit/execute顺序在同一线程执行
+ * 默认使用一致性hash分区, 扩容/缩容时只有小部分key需要迁移到其他分区
+ * <p>
+ * 扩容/缩容在线进行, 不阻塞提交task的线程:
+ * 1. 构建新分区表并发布, 之后提交的task都路由到新分区表
+ * 2. 等待仍持有旧分区表的提交线程完成入队(仅纳秒级)
+ * 3. 往每个旧分区队列尾插入fence, 分区变化的key在fence执行前提交的task暂存在交接(Handoff)中
+ * 4. 旧分区执行到fence时, 说明该key之前的task已执行完, 按序将暂存task转交新分区
+ * 以此保证重分区过程中每个key的task仍按提交顺序执行
+ * <p>
+ * 统计每个分区的负载(积压task数, 每秒执行task数, 忙碌时间占比), 可开启定时rebalance:
+ * 少数热点key集中在同一分区导致分区负载倾斜时, 将该分区中除最热key外的部分key迁移到最空闲分区
+ * key迁移复用重分区的fence交接机制, 不影响每个key的执行顺序
+ * <p>
+ * 可限制每个分区积压task数, 分区满时按{@link OverflowPolicy}处理
+ * 注意: {@link OverflowPolicy#CALLER_RUNS}由提交线程直接执行, 不再保证同一key的执行顺序
+ * <p>
+ * 支持批量提交, 按分区分组后每个分区只入队一次
  */
 public class PartitionTaskExecutor<K> {
-    //分区数
-    private volatile int partitionNum;
+    private static final Logger log = LoggerFactory.getLogger(PartitionTaskExecutor.class);
+    //每次批量消费task的最大数量, 消费完一批再检查是否需要停止
+    private static final int DRAIN_BATCH = 1024;
+    //每个分区保存最近采样的key数, 用于rebalance时挑选迁移的key
+    private static final int KEY_SAMPLE_SIZE = 256;
+    //每执行2^KEY_SAMPLE_SHIFT个task采样一次key
+    private static final int KEY_SAMPLE_SHIFT = 4;
+    //分区忙碌时间占比超过该值才认为是热点分区
+    private static final double HOT_BUSY_RATIO = 0.8;
+    //rebalance迁移的key上限, 避免路由表无限增长
+    private static final int MAX_OVERRIDES = 4096;
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicLongFieldUpdater<PartitionTaskExecutor.PartitionTask> COMPLETED_UPDATER =
+            AtomicLongFieldUpdater.newUpdater(PartitionTaskExecutor.PartitionTask.class, "completed");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicLongFieldUpdater<PartitionTaskExecutor.PartitionTask> BUSY_NANOS_UPDATER =
+            AtomicLongFieldUpdater.newUpdater(PartitionTaskExecutor.PartitionTask.class, "busyNanos");
 
     //分区算法
-    private Partitioner<K> partitioner;
+    private final Partitioner<K> partitioner;
+    //分区任务队列类型
+    private final QueueType queueType;
+    //每个分区最多积压task数, <=0表示无界
+    private final int capacity;
+    //分区满时的处理策略
+    private final OverflowPolicy overflowPolicy;
+    //OverflowPolicy.BLOCK时, 等待分区空闲的超时时间
+    private final long blockTimeoutNanos;
+    //分区执行线程没有task时的等待策略
+    private final WaitStrategy waitStrategy;
     //执行线程池
-    private ThreadPoolExecutor threadPool;
-    //所有分区执行线程实例
-    //lazy init
-    private volatile PartitionTask[] partitionTasks;
+    private final ThreadPoolExecutor threadPool;
+    //当前分区表, 扩容/缩容时整体替换; null表示已shutdown
+    private volatile PartitionTable table;
+    //扩容/缩容互斥, 只有扩容/缩容线程竞争, 提交task的线程不需要
+    private final Object resizeLock = new Object();
+
+    //负载统计, 对外查询与rebalance各用一个采样窗口, 互不重置对方的窗口
+    private final StatsWindow statsWindow = new StatsWindow();
+    private final StatsWindow rebalanceWindow = new StatsWindow();
+    //最近一次采样的负载倾斜度 = 最忙分区忙碌占比 / 平均忙碌占比
+    private volatile double skew = 1.0;
+    //负载倾斜度超过该值才rebalance
+    private volatile double skewThreshold = 2.0;
+    //定时rebalance
+    private ScheduledFuture<?> rebalanceFuture;
 
     public PartitionTaskExecutor() {
         this(10);
     }
 
     public PartitionTaskExecutor(int partitionNum) {
-        this(partitionNum, new HashPartitioner<>());
+        this(partitionNum, new JumpConsistentHashPartitioner<>());
     }
 
     public PartitionTaskExecutor(int partitionNum, Partitioner<K> partitioner) {
-        this.partitionNum = partitionNum;
-        this.threadPool = new ThreadPoolExecutor(partitionNum, Integer.MAX_VALUE, 5, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
-        this.threadPool.allowCoreThreadTimeOut(true);
-        this.partitioner = partitioner;
-        this.partitionTasks = new PartitionTaskExecutor.PartitionTask[this.partitionNum];
+        this(partitionNum, partitioner, QueueType.BLOCKING);
+    }
+
+    public PartitionTaskExecutor(int partitionNum, Partitioner<K> partitioner, QueueType queueType) {
+        this(partitionNum, partitioner, defaultThreadPool(partitionNum), queueType);
     }
 
     /**
      * @param threadPool 如果最小线程数 < @param partitionNum, 则真实的@param partitionNum=@param threadPool的最大线程数
      */
     public PartitionTaskExecutor(int partitionNum, Partitioner<K> partitioner, ThreadPoolExecutor threadPool) {
-        this.partitionNum = partitionNum;
+        this(partitionNum, partitioner, threadPool, QueueType.BLOCKING);
+    }
+
+    public PartitionTaskExecutor(int partitionNum, Partitioner<K> partitioner, ThreadPoolExecutor threadPool, QueueType queueType) {
+        this(partitionNum, partitioner, threadPool, queueType, 0, OverflowPolicy.FAIL_FAST, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param capacity 每个分区最多积压task数
+     */
+    public PartitionTaskExecutor(int partitionNum, Partitioner<K> partitioner, QueueType queueType,
+                                 int capacity, OverflowPolicy overflowPolicy) {
+        this(partitionNum, partitioner, defaultThreadPool(partitionNum), queueType, capacity, overflowPolicy, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param waitStrategy 分区执行线程没有task时的等待策略, 延迟敏感场景可用自旋类策略
+     */
+    public PartitionTaskExecutor(int partitionNum, Partitioner<K> partitioner, QueueType queueType, WaitStrategy waitStrategy) {
+        this(partitionNum, partitioner, defaultThreadPool(partitionNum), queueType, 0, OverflowPolicy.FAIL_FAST, 0, TimeUnit.MILLISECONDS, waitStrategy);
+    }
+
+    /**
+     * @param capacity     每个分区最多积压task数, <=0表示无界
+     * @param blockTimeout OverflowPolicy.BLOCK时, 等待分区空闲的超时时间, 超时则抛RejectedExecutionException
+     */
+    public PartitionTaskExecutor(int partitionNum, Partitioner<K> partitioner, ThreadPoolExecutor threadPool, QueueType queueType,
+                                 int capacity, OverflowPolicy overflowPolicy, long blockTimeout, TimeUnit unit) {
+        this(partitionNum, partitioner, threadPool, queueType, capacity, overflowPolicy, blockTimeout, unit, null);
+    }
+
+    /**
+     * @param queueType    OverflowPolicy.DROP_OLDEST且有界时固定使用BLOCKING队列, 以便提交线程移除最早积压的task
+     * @param waitStrategy null则BLOCKING队列立即park, MPSC队列先yield再park
+     */
+    public PartitionTaskExecutor(int partitionNum, Partitioner<K> partitioner, ThreadPoolExecutor threadPool, QueueType queueType,
+                                 int capacity, OverflowPolicy overflowPolicy, long blockTimeout, TimeUnit unit, WaitStrategy waitStrategy) {
+        Preconditions.checkArgument(partitionNum > 0, "partitionNum must be positive");
         this.partitioner = partitioner;
         this.threadPool = threadPool;
-        this.partitionTasks = new PartitionTaskExecutor.PartitionTask[this.partitionNum];
+        this.queueType = queueType;
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+        this.blockTimeoutNanos = unit.toNanos(blockTimeout);
+        if (waitStrategy == null) {
+            waitStrategy = queueType == QueueType.MPSC ? new SpinYieldParkWaitStrategy(0, 100) : new BlockingWaitStrategy();
+        }
+        this.waitStrategy = waitStrategy;
+        this.table = new PartitionTable(partitionNum, Collections.emptyMap(), null);
     }
 
-    private PartitionTask getOrCreatePartitionTask(int partition) {
-        if (0 < partition && partition < partitionTasks.length) {
-            PartitionTask partitionTask = partitionTasks[partition];
-            if (partitionTask == null) {
-                partitionTask = new PartitionTask();
-                partitionTasks[partition] = partitionTask;
-                threadPool.execute(partitionTask);
+    private static ThreadPoolExecutor defaultThreadPool(int partitionNum) {
+        ThreadPoolExecutor threadPool = new ThreadPoolExecutor(partitionNum, Integer.MAX_VALUE, 5, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        threadPool.allowCoreThreadTimeOut(true);
+        return threadPool;
+    }
+
+    /**
+     * 将task路由到所属分区
+     */
+    private void dispatch(Task task) {
+        long deadline = 0;
+        for (; ; ) {
+            PartitionTable nowTable = table;
+            if (nowTable == null) {
+                throw new RejectedExecutionException("PartitionTaskExecutor has been shutdown");
+            }
+            PartitionTask full;
+            nowTable.inFlight.increment();
+            try {
+                //先登记再检查分区表是否已被替换, 与扩容/缩容线程先发布新表再等待登记数归零构成Dekker式同步
+                if (nowTable != table) {
+                    continue;
+                }
+                full = nowTable.route(task);
+                if (full == null) {
+                    return;
+                }
+            } finally {
+                nowTable.inFlight.decrement();
             }
 
-            return partitionTask;
-        } else {
-            return null;
+            //分区已满, 在登记之外处理, 避免阻塞扩容/缩容
+            switch (overflowPolicy) {
+                case CALLER_RUNS:
+                    task.run();
+                    return;
+                case BLOCK:
+                    if (deadline == 0) {
+                        deadline = System.nanoTime() + Math.min(blockTimeoutNanos, Long.MAX_VALUE / 2);
+                    }
+                    if (!full.awaitSpace(deadline)) {
+                        throw new RejectedExecutionException("wait for partition space timeout");
+                    }
+                    //重新路由, 期间可能已重分区
+                    break;
+                default:
+                    throw new RejectedExecutionException("partition is full, capacity " + capacity);
+            }
         }
     }
 
+    /**
+     * 同一key的task按提交顺序执行
+     * 例外: 分区满且OverflowPolicy.CALLER_RUNS时, 该task在提交线程立即执行, 可能先于同一key已积压的task, 下同
+     */
     public Future<?> execute(K key, Runnable task) {
-        PartitionTask partitionTask = getOrCreatePartitionTask(partitioner.toPartition(key, partitionNum));
-        if (partitionTask != null) {
-            FutureTask futureTask = new FutureTask(task, null);
+        FutureTask futureTask = new FutureTask(task, null);
+        dispatch(new Task(key, futureTask));
+        return futureTask;
+    }
 
-            partitionTask.execute(new Task(key, futureTask));
+    public <T> Future<T> execute(K key, Runnable task, T value) {
+        FutureTask<T> futureTask = new FutureTask<>(task, value);
+        dispatch(new Task(key, futureTask));
+        return futureTask;
+    }
 
-            return futureTask;
-        } else {
+    public <T> Future<T> execute(K key, Callable<T> task) {
+        FutureTask<T> futureTask = new FutureTask<>(task);
+        dispatch(new Task(key, futureTask));
+        return futureTask;
+    }
+
+    /**
+     * 不关心执行结果时使用, 不创建Future, task抛出的异常只打印日志
+     *
+     * @see #execute(Object, Runnable)
+     */
+    public void post(K key, Runnable task) {
+        dispatch(new Task(key, task));
+    }
+
+    /**
+     * 返回CompletableFuture, 调用者可链式处理结果, 无需阻塞等待
+     *
+     * @see #execute(Object, Runnable)
+     */
+    public CompletableFuture<Void> submit(K key, Runnable task) {
+        CompletableTask<Void> completableTask = new CompletableTask<>(() -> {
+            task.run();
             return null;
-        }
+        });
+        dispatch(new Task(key, completableTask));
+        return completableTask;
     }
 
-    public <T> Future<T> execute(K key, Runnable task, T value) {
-        PartitionTask partitionTask = getOrCreatePartitionTask(partitioner.toPartition(key, partitionNum));
-        if (partitionTask != null) {
-            FutureTask futureTask = new FutureTask(task, value);
+    public <T> CompletableFuture<T> submit(K key, Supplier<T> task) {
+        CompletableTask<T> completableTask = new CompletableTask<>(task);
+        dispatch(new Task(key, completableTask));
+        return completableTask;
+    }
 
-            partitionTask.execute(new Task(key, futureTask));
+    /**
+     * 批量提交, 按分区分组后每个分区只入队一次, 且不为每个task创建Future
+     * 同一key的task按在@param elements中的顺序执行
+     *
+     * @return 所有task执行完后complete, 有task抛异常则以第一个异常completeExceptionally, 其余task仍会执行
+     */
+    public <T> CompletableFuture<Void> executeAll(Collection<T> elements, Function<? super T, ? extends K> keyMapper, Consumer<? super T> handler) {
+        int n = elements.size();
+        Object[] keys = new Object[n];
+        Runnable[] tasks = new Runnable[n];
+        int i = 0;
+        for (T element : elements) {
+            keys[i] = keyMapper.apply(element);
+            tasks[i] = () -> handler.accept(element);
+            i++;
+        }
+        return dispatchAll(keys, tasks);
+    }
 
-            return futureTask;
-        } else {
-            return null;
+    /**
+     * 批量提交, 同一key的task按在集合中的顺序执行
+     *
+     * @see #executeAll(Collection, Function, Consumer)
+     */
+    public CompletableFuture<Void> executeAll(Map<K, ? extends Collection<? extends Runnable>> key2Tasks) {
+        int n = 0;
+        for (Collection<? extends Runnable> tasks : key2Tasks.values()) {
+            n += tasks.size();
+        }
+        Object[] keys = new Object[n];
+        Runnable[] tasks = new Runnable[n];
+        int i = 0;
+        for (Map.Entry<K, ? extends Collection<? extends Runnable>> entry : key2Tasks.entrySet()) {
+            for (Runnable task : entry.getValue()) {
+                keys[i] = entry.getKey();
+                tasks[i] = task;
+                i++;
+            }
         }
+        return dispatchAll(keys, tasks);
     }
 
-    public <T> Future<T> execute(K key, Callable<T> task) {
-        PartitionTask partitionTask = getOrCreatePartitionTask(partitioner.toPartition(key, partitionNum));
-        if (partitionTask != null) {
-            FutureTask<T> futureTask = new FutureTask(task);
+    /**
+     * 按分区分组, 每组作为一个BatchTask入队
+     * 重分区交接期间或分区有容量限制时, 退化为逐个task路由, 以保证交接顺序及溢出策略
+     */
+    @SuppressWarnings("unchecked")
+    private CompletableFuture<Void> dispatchAll(Object[] keys, Runnable[] tasks) {
+        BatchFuture future = new BatchFuture(tasks.length);
+        if (tasks.length == 0) {
+            future.complete(null);
+            return future;
+        }
+        for (; ; ) {
+            PartitionTable nowTable = table;
+            if (nowTable == null) {
+                throw new RejectedExecutionException("PartitionTaskExecutor has been shutdown");
+            }
+            if (capacity > 0 || nowTable.handoffs != null) {
+                break;
+            }
+            nowTable.inFlight.increment();
+            try {
+                //与dispatch(Task)一致, 先登记再检查
+                if (nowTable != table || nowTable.handoffs != null) {
+                    continue;
+                }
+                int partitionNum = nowTable.partitionNum;
+                int[] partitions = new int[keys.length];
+                int[] counts = new int[partitionNum];
+                for (int i = 0; i < keys.length; i++) {
+                    int partition = nowTable.partitionOf((K) keys[i]);
+                    partitions[i] = partition;
+                    counts[partition]++;
+                }
+                BatchTask[] batches = new PartitionTaskExecutor.BatchTask[partitionNum];
+                for (int i = 0; i < keys.length; i++) {
+                    int partition = partitions[i];
+                    BatchTask batch = batches[partition];
+                    if (batch == null) {
+                        batch = new BatchTask((K) keys[i], new Runnable[counts[partition]], future);
+                        batches[partition] = batch;
+                    }
+                    batch.add(tasks[i]);
+                }
+                for (int partition = 0; partition < partitionNum; partition++) {
+                    if (batches[partition] != null) {
+                        nowTable.getOrCreate(partition).execute(batches[partition]);
+                    }
+                }
+                return future;
+            } finally {
+                nowTable.inFlight.decrement();
+            }
+        }
 
-            partitionTask.execute(new Task(key, futureTask));
+        for (int i = 0; i < keys.length; i++) {
+            BatchTask batch = new BatchTask((K) keys[i], new Runnable[1], future);
+            batch.add(tasks[i]);
+            try {
+                dispatch(batch);
+            } catch (RejectedExecutionException e) {
+                //剩余task不再提交
+                future.completeExceptionally(e);
+                throw e;
+            }
+        }
+        return future;
+    }
 
-            return futureTask;
-        } else {
-            return null;
+    private void closeAll() {
+        PartitionTable nowTable;
+        synchronized (resizeLock) {
+            nowTable = table;
+            table = null;
+            if (rebalanceFuture != null) {
+                rebalanceFuture.cancel(false);
+                rebalanceFuture = null;
+            }
+        }
+        List<PartitionTask> closed = new ArrayList<>();
+        if (nowTable != null) {
+            nowTable.awaitInFlight();
+            //关闭旧分区表中(可能仍在执行暂存task转交)的分区执行线程实例
+            for (PartitionTable t = nowTable; t != null; t = t.prev) {
+                for (int i = 0; i < t.partitionTasks.length(); i++) {
+                    PartitionTask task = t.partitionTasks.get(i);
+                    if (task != null && !closed.contains(task)) {
+                        task.close();
+                        closed.add(task);
+                    }
+                }
+            }
         }
     }
 
     public void shutdown() {
         //先关闭执行线程实例再关闭线程池
-        //关闭并移除分区执行线程实例,且缓存
-        for (PartitionTask task : partitionTasks) {
-            task.close();
-        }
+        closeAll();
         threadPool.shutdown();
-        //help gc
-        partitionTasks = null;
-        threadPool = null;
-        partitioner = null;
     }
 
     public void shutdownNow() {
         //先关闭执行线程实例再关闭线程池
-        //关闭并移除分区执行线程实例,且缓存
-        for (PartitionTask task : partitionTasks) {
-            task.close();
-        }
+        closeAll();
         threadPool.shutdownNow();
-        //help gc
-        partitionTasks = null;
-        threadPool = null;
-        partitioner = null;
     }
 
+    /**
+     * 不能在分区执行线程中调用, 否则抛IllegalStateException, 下同
+     */
     public void expandTo(int newPartitionNum) {
-        Preconditions.checkArgument(newPartitionNum > partitionNum, "param newPartitionNum '{}' must be greater than maxPartition '{}'", newPartitionNum, partitionNum);
-
-        //对partitionTasks加锁并扩容, 然后更新numPartition
-        //这样能保证一致性, 并且不会发生IndexOutOfBound
-        synchronized (partitionTasks) {
-            partitionTasks = Arrays.copyOf(partitionTasks, newPartitionNum);
-            partitionNum = newPartitionNum;
-            threadPool.setCorePoolSize(partitionNum);
+        checkNotPartitionThread();
+        synchronized (resizeLock) {
+            PartitionTable nowTable = checkRunning();
+            Preconditions.checkArgument(newPartitionNum > nowTable.partitionNum, "param newPartitionNum '%s' must be greater than nowPartitionNum '%s'", newPartitionNum, nowTable.partitionNum);
+            resize(nowTable, newPartitionNum, retainOverrides(nowTable, newPartitionNum));
         }
     }
 
     public void expand(int addPartitionNum) {
-        int newPartitionNum = partitionNum + addPartitionNum;
-        expandTo(newPartitionNum);
+        checkNotPartitionThread();
+        synchronized (resizeLock) {
+            expandTo(getPartitionNum() + addPartitionNum);
+        }
     }
 
     public void shrink(int reducePartitionNum) {
-        int newPartitionNum = partitionNum - reducePartitionNum;
-        shrinkTo(newPartitionNum);
-    }
-
-    private void shutdownTask(int num) {
-        Preconditions.checkArgument(num > 0, "the number of tasks need to be shutdowned must be positive");
-        List<PartitionTask> removedPartitionTasks = new ArrayList<>();
-        //关闭并移除分区执行线程实例,且缓存
-        for (int i = partitionTasks.length - num; i < partitionTasks.length; i++) {
-            PartitionTask task = partitionTasks[i];
-            if (task != null) {
-                partitionTasks[i] = null;
-                task.close();
-                removedPartitionTasks.add(task);
-            }
-        }
-
-        //Executors doesn't shutdown
-        if (!removedPartitionTasks.isEmpty()) {
-            for (PartitionTask partitionTask : removedPartitionTasks) {
-                while (!partitionTask.isTerminated) {
-                    try {
-                        Thread.sleep(200);
-                    } catch (InterruptedException e) {
-                        ExceptionUtils.log(e);
+        checkNotPartitionThread();
+        synchronized (resizeLock) {
+            shrinkTo(getPartitionNum() - reducePartitionNum);
+        }
+    }
+
+    public void shrinkTo(int newPartitionNum) {
+        checkNotPartitionThread();
+        synchronized (resizeLock) {
+            PartitionTable nowTable = checkRunning();
+            Preconditions.checkArgument(newPartitionNum > 0, "param newPartitionNum '%s' can't be zero or negative", newPartitionNum);
+            Preconditions.checkArgument(newPartitionNum < nowTable.partitionNum, "param newPartitionNum '%s' must be lower than nowPartitionNum '%s'", newPartitionNum, nowTable.partitionNum);
+            resize(nowTable, newPartitionNum, retainOverrides(nowTable, newPartitionNum));
+        }
+    }
+
+    /**
+     * 重分区后仍保留rebalance迁移到有效分区的key
+     */
+    private Map<K, Integer> retainOverrides(PartitionTable nowTable, int newPartitionNum) {
+        if (nowTable.overrides.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<K, Integer> overrides = new HashMap<>();
+        for (Map.Entry<K, Integer> entry : nowTable.overrides.entrySet()) {
+            if (entry.getValue() < newPartitionNum) {
+                overrides.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return overrides;
+    }
+
+    private PartitionTable checkRunning() {
+        PartitionTable nowTable = table;
+        if (nowTable == null) {
+            throw new IllegalStateException("PartitionTaskExecutor has been shutdown");
+        }
+        return nowTable;
+    }
+
+    /**
+     * 重分区需等待各旧分区执行到fence, 分区执行线程自身等待(或等待resizeLock时另一线程正在等待该分区)会死锁
+     * 需在获取resizeLock前检查
+     */
+    private void checkNotPartitionThread() {
+        Thread current = Thread.currentThread();
+        for (PartitionTable t = table; t != null; t = t.prev) {
+            for (int i = 0; i < t.partitionTasks.length(); i++) {
+                PartitionTask partitionTask = t.partitionTasks.get(i);
+                if (partitionTask != null && partitionTask.bind == current && !partitionTask.isTerminated) {
+                    throw new IllegalStateException("can't resize or rebalance in partition thread");
+                }
+            }
+        }
+    }
+
+    /**
+     * 持有resizeLock时调用
+     *
+     * @param overrides 新分区表中不按分区算法路由的key -> 分区
+     */
+    private void resize(PartitionTable oldTable, int newPartitionNum, Map<K, Integer> overrides) {
+        //上一次重分区的交接未完成前不允许再次重分区, 只阻塞扩容/缩容线程
+        oldTable.awaitHandoffs();
+
+        int oldPartitionNum = oldTable.partitionNum;
+        PartitionTable newTable = new PartitionTable(newPartitionNum, overrides, oldTable);
+        //新旧分区表共有的分区沿用同一分区执行线程实例, 保证key不变的task继续按序执行
+        //此处先创建好, 避免发布后旧分区表与新分区表各自lazy init出不同的实例
+        for (int i = 0; i < Math.min(oldPartitionNum, newPartitionNum); i++) {
+            newTable.partitionTasks.set(i, oldTable.getOrCreate(i));
+        }
+        if (newPartitionNum > threadPool.getCorePoolSize()) {
+            threadPool.setCorePoolSize(newPartitionNum);
+        }
+
+        //发布新分区表, 之后提交的task都按新分区路由
+        table = newTable;
+        //等待仍持有旧分区表的提交线程完成入队, 此后旧分区不会再有新task入队
+        oldTable.awaitInFlight();
+
+        for (int i = 0; i < oldPartitionNum; i++) {
+            PartitionTask oldPartitionTask = oldTable.partitionTasks.get(i);
+            Handoff handoff = newTable.handoffs[i];
+            boolean removed = i >= newPartitionNum;
+            if (oldPartitionTask == null) {
+                //从未创建, 不存在积压task
+                handoff.release();
+            } else {
+                oldPartitionTask.execute(new Task(null, () -> {
+                    handoff.release();
+                    if (removed) {
+                        //缩容移除的分区, 执行完积压task后退出
+                        oldPartitionTask.stop();
                     }
+                }, true));
+            }
+        }
+
+        if (newPartitionNum < threadPool.getCorePoolSize()) {
+            threadPool.setCorePoolSize(newPartitionNum);
+        }
+    }
+
+    //-----------------------------------------------------------------------------------------------
+
+    /**
+     * 采样所有分区的负载, 速率类指标为距离上一次调用该方法的平均值
+     * 不影响rebalance的采样窗口
+     */
+    public List<PartitionStats> getPartitionStats() {
+        return statsWindow.sample(checkRunning());
+    }
+
+    /**
+     * 检查负载倾斜, 必要时将热点分区中除最热key外的部分key迁移到最空闲分区
+     *
+     * @return 是否有key迁移
+     */
+    public boolean rebalance() {
+        checkNotPartitionThread();
+        synchronized (resizeLock) {
+            PartitionTable nowTable = checkRunning();
+            if (nowTable.pendingHandoffs.getCount() > 0) {
+                //上一次重分区仍在交接
+                return false;
+            }
+            List<PartitionStats> stats = rebalanceWindow.sample(nowTable);
+            double skew = rebalanceWindow.skew;
+            if (stats.size() < 2 || skew < skewThreshold) {
+                return false;
+            }
+            PartitionStats hot = stats.get(0);
+            PartitionStats cold = stats.get(0);
+            for (PartitionStats partitionStats : stats) {
+                if (partitionStats.getBusyRatio() > hot.getBusyRatio()) {
+                    hot = partitionStats;
                 }
-                //重新执行被移除线程但还没执行的tasks
-                for (Task queuedTask : partitionTask.queue) {
-                    execute(queuedTask.key, queuedTask.target);
+                if (partitionStats.getBusyRatio() < cold.getBusyRatio() ||
+                        (partitionStats.getBusyRatio() == cold.getBusyRatio() && partitionStats.getQueueDepth() < cold.getQueueDepth())) {
+                    cold = partitionStats;
                 }
+            }
+            if (hot.getBusyRatio() < HOT_BUSY_RATIO) {
+                return false;
+            }
+            log.warn("partition task executor is skewed({}), hot: {}, cold: {}", String.format("%.2f", skew), hot, cold);
+
+            //统计热点分区最近采样的key
+            PartitionTask hotTask = nowTable.partitionTasks.get(hot.getPartition());
+            Map<K, Integer> counts = new HashMap<>();
+            int total = 0;
+            for (int i = 0; i < KEY_SAMPLE_SIZE; i++) {
+                K key = (K) hotTask.sampledKeys.get(i);
+                if (key != null && nowTable.partitionOf(key) == hot.getPartition()) {
+                    counts.merge(key, 1, Integer::sum);
+                    total++;
+                }
+            }
+            if (counts.size() < 2 || nowTable.overrides.size() >= MAX_OVERRIDES) {
+                //只有单个热点key, 无法拆分而不破坏其执行顺序
+                return false;
+            }
+            List<Map.Entry<K, Integer>> sorted = new ArrayList<>(counts.entrySet());
+            sorted.sort((o1, o2) -> o2.getValue() - o1.getValue());
 
+            //最热key留在原分区, 其余key按热度迁移, 直到迁移量约为热点分区负载的一半
+            Map<K, Integer> overrides = new HashMap<>(nowTable.overrides);
+            int moved = 0;
+            for (int i = 1; i < sorted.size() && moved * 2 < total && overrides.size() < MAX_OVERRIDES; i++) {
+                overrides.put(sorted.get(i).getKey(), cold.getPartition());
+                moved += sorted.get(i).getValue();
             }
+            for (int i = 0; i < KEY_SAMPLE_SIZE; i++) {
+                hotTask.sampledKeys.lazySet(i, null);
+            }
+            resize(nowTable, nowTable.partitionNum, overrides);
+            return true;
         }
     }
 
-    public void shrinkTo(int newPartitionNum) {
-        Preconditions.checkArgument(newPartitionNum > 0, "param newPartitionNum '{}' can't be zero or negative", newPartitionNum);
-        Preconditions.checkArgument(newPartitionNum < partitionNum, "param newPartitionNum '{}' must be lower than nowPartitionNum '{}'", newPartitionNum, partitionNum);
-
-        //对partitionTasks加锁, 然后更新numPartition, 最后更新partitionTasks大小
-        //这样能保证一致性, 并且不会发生数组index异常(因数组长度缩小)
-        synchronized (partitionTasks) {
-            int originPartitionNum = partitionNum;
-            partitionNum = newPartitionNum;
-            shutdownTask(originPartitionNum - partitionNum);
-            partitionTasks = Arrays.copyOf(partitionTasks, partitionNum);
-            threadPool.setCorePoolSize(newPartitionNum);
+    /**
+     * 开启定时rebalance
+     *
+     * @param skewThreshold 负载倾斜度(最忙分区忙碌占比 / 平均忙碌占比)超过该值才迁移key
+     */
+    public void enableRebalance(long period, TimeUnit unit, double skewThreshold) {
+        Preconditions.checkArgument(skewThreshold > 1, "skewThreshold must be greater than 1");
+        synchronized (resizeLock) {
+            checkRunning();
+            this.skewThreshold = skewThreshold;
+            if (rebalanceFuture != null) {
+                rebalanceFuture.cancel(false);
+            }
+            rebalanceFuture = ThreadManager.DEFAULT.scheduleAtFixedRate(() -> {
+                try {
+                    rebalance();
+                } catch (IllegalStateException e) {
+                    //已shutdown
+                } catch (Exception e) {
+                    ExceptionUtils.log(e);
+                }
+            }, period, period, unit);
+        }
+    }
+
+    public void disableRebalance() {
+        synchronized (resizeLock) {
+            if (rebalanceFuture != null) {
+                rebalanceFuture.cancel(false);
+                rebalanceFuture = null;
+            }
+        }
+    }
+
+    //getter
+    public int getPartitionNum() {
+        return checkRunning().partitionNum;
+    }
+
+    /**
+     * 最近一次采样的负载倾斜度, 可用于告警
+     */
+    public double getSkew() {
+        return skew;
+    }
+
+    //-----------------------------------------------------------------------------------------------
+
+    /**
+     * 负载采样窗口, 速率类指标为距离该窗口上一次采样的平均值
+     */
+    private class StatsWindow {
+        //上一次采样时间
+        private long lastSampleNanos = System.nanoTime();
+        //分区执行线程实例 -> 上一次采样时的{completed, busyNanos}, 每次采样重建, 不保留已移除分区
+        private Map<PartitionTask, long[]> lastSamples = new IdentityHashMap<>();
+        //该窗口最近一次采样的负载倾斜度
+        private double skew = 1.0;
+
+        private synchronized List<PartitionStats> sample(PartitionTable nowTable) {
+            long now = System.nanoTime();
+            long elapsed = Math.max(now - lastSampleNanos, 1);
+            lastSampleNanos = now;
+
+            Map<PartitionTask, long[]> samples = new IdentityHashMap<>(nowTable.partitionNum * 2);
+            List<PartitionStats> stats = new ArrayList<>(nowTable.partitionNum);
+            double maxBusyRatio = 0;
+            double sumBusyRatio = 0;
+            for (int i = 0; i < nowTable.partitionNum; i++) {
+                PartitionTask partitionTask = nowTable.partitionTasks.get(i);
+                if (partitionTask == null) {
+                    stats.add(new PartitionStats(i, 0, 0, 0, 0));
+                    continue;
+                }
+                long completed = partitionTask.completed;
+                long busyNanos = partitionTask.busyNanos;
+                long[] last = lastSamples.get(partitionTask);
+                //该窗口第一次采样到该分区, 从0开始计算
+                long lastCompleted = last != null ? last[0] : 0;
+                long lastBusyNanos = last != null ? last[1] : 0;
+                samples.put(partitionTask, new long[]{completed, busyNanos});
+
+                double tasksPerSecond = (completed - lastCompleted) * 1e9 / elapsed;
+                double busyRatio = Math.min((double) (busyNanos - lastBusyNanos) / elapsed, 1.0);
+                long queueDepth = Math.max(partitionTask.enqueued.sum() - completed, 0);
+                stats.add(new PartitionStats(i, queueDepth, completed, tasksPerSecond, busyRatio));
+                maxBusyRatio = Math.max(maxBusyRatio, busyRatio);
+                sumBusyRatio += busyRatio;
+            }
+            lastSamples = samples;
+            skew = sumBusyRatio > 0 ? maxBusyRatio / (sumBusyRatio / nowTable.partitionNum) : 1.0;
+            PartitionTaskExecutor.this.skew = skew;
+            return stats;
+        }
+    }
+
+    /**
+     * 分区表, 不可变(分区执行线程实例除外, lazy init)
+     */
+    private class PartitionTable {
+        //分区数
+        private final int partitionNum;
+        //rebalance迁移的key -> 分区, 优先于分区算法
+        private final Map<K, Integer> overrides;
+        //所有分区执行线程实例, lazy init, CAS创建
+        private final AtomicReferenceArray<PartitionTask> partitionTasks;
+        //仍持有该分区表的提交线程数
+        private final StripedCounter inFlight = new StripedCounter();
+        //重分区前的分区表, 用于计算key原来所属分区
+        private volatile PartitionTable prev;
+        //重分区时, 旧分区 -> 交接; 全部交接完成后置为null
+        private volatile Handoff[] handoffs;
+        //未完成的交接数
+        private final CountDownLatch pendingHandoffs;
+
+        private PartitionTable(int partitionNum, Map<K, Integer> overrides, PartitionTable prev) {
+            this.partitionNum = partitionNum;
+            this.overrides = overrides;
+            this.partitionTasks = new AtomicReferenceArray<>(partitionNum);
+            this.prev = prev;
+            if (prev != null) {
+                Handoff[] handoffs = new PartitionTaskExecutor.Handoff[prev.partitionNum];
+                for (int i = 0; i < handoffs.length; i++) {
+                    handoffs[i] = new Handoff(this);
+                }
+                this.handoffs = handoffs;
+                this.pendingHandoffs = new CountDownLatch(handoffs.length);
+            } else {
+                this.pendingHandoffs = new CountDownLatch(0);
+            }
+        }
+
+        private PartitionTask getOrCreate(int partition) {
+            PartitionTask partitionTask = partitionTasks.get(partition);
+            if (partitionTask == null) {
+                PartitionTask created = new PartitionTask();
+                if (partitionTasks.compareAndSet(partition, null, created)) {
+                    threadPool.execute(created);
+                    partitionTask = created;
+                } else {
+                    partitionTask = partitionTasks.get(partition);
+                }
+            }
+            return partitionTask;
+        }
+
+        private int partitionOf(K key) {
+            if (!overrides.isEmpty()) {
+                Integer partition = overrides.get(key);
+                if (partition != null) {
+                    return partition;
+                }
+            }
+            return partitioner.toPartition(key, partitionNum);
+        }
+
+        /**
+         * @return 分区已满(且不是DROP_OLDEST)时返回该分区, 否则返回null
+         */
+        private PartitionTask route(Task task) {
+            int partition = partitionOf(task.key);
+            Handoff[] handoffs = this.handoffs;
+            if (handoffs != null) {
+                PartitionTable prev = this.prev;
+                if (prev != null) {
+                    int oldPartition = prev.partitionOf(task.key);
+                    //分区变化的key, 旧分区还未执行完积压task, 暂存
+                    if (oldPartition != partition && handoffs[oldPartition].hold(task)) {
+                        return null;
+                    }
+                }
+            }
+            PartitionTask partitionTask = getOrCreate(partition);
+            return partitionTask.tryExecute(task) ? null : partitionTask;
+        }
+
+        private void onHandoffReleased() {
+            pendingHandoffs.countDown();
+            if (pendingHandoffs.getCount() == 0) {
+                //help gc, 且之后提交task不再需要检查交接
+                handoffs = null;
+                prev = null;
+            }
+        }
+
+        private void awaitInFlight() {
+            while (inFlight.sum() > 0) {
+                Thread.yield();
+            }
+        }
+
+        private void awaitHandoffs() {
+            boolean interrupted = false;
+            for (; ; ) {
+                try {
+                    pendingHandoffs.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * 旧分区到新分区的交接
+     * 旧分区执行到fence之前, 暂存分区变化的key的新task
+     */
+    private class Handoff {
+        private final PartitionTable target;
+        private List<Task> pending = new ArrayList<>();
+        private volatile boolean released;
+
+        private Handoff(PartitionTable target) {
+            this.target = target;
+        }
+
+        /**
+         * @return 是否暂存成功, false表示已交接完成, 直接路由到新分区即可
+         */
+        private boolean hold(Task task) {
+            if (released) {
+                return false;
+            }
+            synchronized (this) {
+                if (released) {
+                    return false;
+                }
+                pending.add(task);
+                return true;
+            }
+        }
+
+        /**
+         * 旧分区执行线程执行到fence时调用
+         * 持锁按序转交, 保证转交的task先于之后提交的task入队
+         * 转交不受分区容量限制, 避免分区执行线程之间相互等待
+         */
+        private synchronized void release() {
+            for (Task task : pending) {
+                target.getOrCreate(target.partitionOf(task.key)).execute(task);
+            }
+            pending = null;
+            released = true;
+            target.onHandoffReleased();
+        }
+    }
+
+    /**
+     * 分段计数器, 降低多个提交线程同时登记时的竞争
+     * 与LongAdder不同, 每个分段都是volatile读写, sum()能看到所有已完成的登记
+     */
+    private static class StripedCounter {
+        //每个分段间隔一个cache line(8 long), 避免伪共享
+        private static final int PADDING = 8;
+        private static final int STRIPES = Integer.highestOneBit(SysUtils.CPU_NUM * 2 - 1) << 1;
+
+        private final AtomicLongArray counts = new AtomicLongArray(STRIPES * PADDING);
+
+        private int index() {
+            long id = Thread.currentThread().getId();
+            return (int) ((id * 0x9E3779B97F4A7C15L) >>> 32 & (STRIPES - 1)) * PADDING;
+        }
+
+        void increment() {
+            counts.getAndIncrement(index());
+        }
+
+        void decrement() {
+            counts.getAndDecrement(index());
+        }
+
+        long sum() {
+            long sum = 0;
+            for (int i = 0; i < STRIPES; i++) {
+                sum += counts.get(i * PADDING);
+            }
+            return sum;
         }
     }
 
@@ -204,16 +896,171 @@ public class PartitionTaskExecutor<K> {
         //缓存分区key,以便重分区时获取分区key
         private final K key;
         private final Runnable target;
+        //重分区的fence, 不能被丢弃
+        private final boolean fence;
 
         Task(K key, Runnable target) {
+            this(key, target, false);
+        }
+
+        Task(K key, Runnable target, boolean fence) {
             this.key = key;
             this.target = target;
+            this.fence = fence;
         }
 
         @Override
         public void run() {
             target.run();
         }
+
+        /**
+         * 被丢弃时取消, 等待结果的调用者会收到CancellationException
+         */
+        void cancel() {
+            if (target instanceof Future) {
+                ((Future<?>) target).cancel(false);
+            }
+        }
+
+        /**
+         * @return 包含的task数
+         */
+        int size() {
+            return 1;
+        }
+    }
+
+    /**
+     * 同一分区的一批task, 只需一次入队
+     */
+    private class BatchTask extends Task {
+        private final Runnable[] tasks;
+        private final BatchFuture future;
+        private int size;
+
+        BatchTask(K firstKey, Runnable[] tasks, BatchFuture future) {
+            super(firstKey, null);
+            this.tasks = tasks;
+            this.future = future;
+        }
+
+        void add(Runnable task) {
+            tasks[size++] = task;
+        }
+
+        @Override
+        public void run() {
+            Throwable error = null;
+            for (int i = 0; i < size; i++) {
+                try {
+                    tasks[i].run();
+                } catch (Throwable e) {
+                    if (error == null) {
+                        error = e;
+                    }
+                }
+            }
+            future.onDone(size, error);
+        }
+
+        @Override
+        void cancel() {
+            future.onDone(size, new CancellationException());
+        }
+
+        @Override
+        int size() {
+            return size;
+        }
+    }
+
+    /**
+     * 批量提交的聚合结果, 所有task执行完才complete
+     */
+    private static class BatchFuture extends CompletableFuture<Void> {
+        private final AtomicInteger remaining;
+        private volatile Throwable error;
+
+        BatchFuture(int size) {
+            this.remaining = new AtomicInteger(size);
+        }
+
+        void onDone(int count, Throwable e) {
+            if (e != null && error == null) {
+                error = e;
+            }
+            if (remaining.addAndGet(-count) == 0) {
+                Throwable error = this.error;
+                if (error == null) {
+                    complete(null);
+                } else {
+                    completeExceptionally(error);
+                }
+            }
+        }
+    }
+
+    /**
+     * 执行结果通过CompletableFuture返回
+     */
+    private static class CompletableTask<T> extends CompletableFuture<T> implements Runnable {
+        private final Supplier<T> supplier;
+
+        CompletableTask(Supplier<T> supplier) {
+            this.supplier = supplier;
+        }
+
+        @Override
+        public void run() {
+            if (isDone()) {
+                return;
+            }
+            try {
+                complete(supplier.get());
+            } catch (Throwable e) {
+                completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * 分区积压task数达到容量上限时的处理策略
+     */
+    public enum OverflowPolicy {
+        /**
+         * 阻塞提交线程直到分区有空闲或超时, 超时抛RejectedExecutionException
+         */
+        BLOCK,
+        /**
+         * 由提交线程直接执行
+         * 注意: 该task可能先于同一key已积压的task执行, 需要同一key严格按序执行时不要使用
+         */
+        CALLER_RUNS,
+        /**
+         * 提交线程移除该分区最早积压的task(fence除外)再入队, 分区积压task数不超过容量
+         * 被丢弃task的Future会被取消; 该策略下分区固定使用BLOCKING队列
+         */
+        DROP_OLDEST,
+        /**
+         * 直接抛RejectedExecutionException
+         */
+        FAIL_FAST
+    }
+
+    /**
+     * 分区任务队列类型
+     */
+    public enum QueueType {
+        /**
+         * LinkedBlockingQueue, 每个task都需加锁入队
+         */
+        BLOCKING,
+        /**
+         * 无锁MPSC队列, 生产者无锁入队, 消费者批量消费
+         * 适合大量小task的场景
+         */
+        MPSC
     }
 
     /**
@@ -221,45 +1068,207 @@ public class PartitionTaskExecutor<K> {
      */
     private class PartitionTask implements Runnable {
         //任务队列
-        private BlockingQueue<Task> queue = new LinkedBlockingQueue<>();
+        //DROP_OLDEST需要提交线程移除队头, MPSC队列只支持单消费者, 固定使用LinkedBlockingQueue
+        private final Queue<Task> queue = queueType == QueueType.MPSC && !(capacity > 0 && overflowPolicy == OverflowPolicy.DROP_OLDEST) ?
+                new MpscQueue<>() : new LinkedBlockingQueue<>();
         //绑定的线程
-        private Thread bind;
+        private volatile Thread bind;
+        //等待上下文
+        private final Waiter waiter = new Waiter(() -> !queue.isEmpty());
+
+        private volatile boolean isStopped = false;
+        private volatile boolean isTerminated = false;
+
+        //负载统计
+        //已入队task数
+        private final LongAdder enqueued = new LongAdder();
+        //已执行task数, 仅分区执行线程写, 非private以便AtomicLongFieldUpdater访问
+        volatile long completed;
+        //累计执行task耗时, 仅分区执行线程写
+        volatile long busyNanos;
+        //最近采样的key, 仅分区执行线程写
+        private final AtomicReferenceArray<Object> sampledKeys = new AtomicReferenceArray<>(KEY_SAMPLE_SIZE);
+
+        //有界时的积压task数(含正在执行的task)
+        private final AtomicInteger size = new AtomicInteger();
+        //等待分区空闲的提交线程数
+        private final AtomicInteger waiters = new AtomicInteger();
 
-        private boolean isStopped = false;
-        private boolean isTerminated = false;
+        /**
+         * 按容量限制入队
+         *
+         * @return false表示分区已满
+         */
+        boolean tryExecute(Task task) {
+            if (capacity > 0) {
+                for (; ; ) {
+                    int nowSize = size.get();
+                    if (nowSize >= capacity) {
+                        if (overflowPolicy != OverflowPolicy.DROP_OLDEST) {
+                            return false;
+                        }
+                        if (evictOldest()) {
+                            //被丢弃task占用的名额转给该task, size不变
+                            break;
+                        }
+                        //队列中只剩fence或已被执行线程取走, 等待size下降
+                        Thread.yield();
+                        continue;
+                    }
+                    if (size.compareAndSet(nowSize, nowSize + 1)) {
+                        break;
+                    }
+                }
+            }
+            enqueue(task);
+            return true;
+        }
+
+        /**
+         * 提交线程移除最早积压的非fence task, 与分区执行线程竞争时以LinkedBlockingQueue的锁为准
+         *
+         * @return 是否移除成功
+         */
+        private boolean evictOldest() {
+            for (Task task : queue) {
+                if (!task.fence) {
+                    //remove失败说明已被分区执行线程取走
+                    if (!queue.remove(task)) {
+                        return false;
+                    }
+                    enqueued.add(-task.size());
+                    task.cancel();
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * 不受容量限制入队, 用于fence及交接转交
+         */
+        void execute(Task task) {
+            if (capacity > 0) {
+                size.incrementAndGet();
+            }
+            enqueue(task);
+        }
 
-        public void execute(Task task) {
+        /**
+         * 等待分区有空闲
+         *
+         * @return false表示超时或被中断
+         */
+        boolean awaitSpace(long deadline) {
+            waiters.incrementAndGet();
             try {
-                queue.put(task);
+                synchronized (this) {
+                    //分区已停止, 返回后重新路由
+                    while (size.get() >= capacity && !isStopped) {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            return false;
+                        }
+                        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                    }
+                    return true;
+                }
             } catch (InterruptedException e) {
-                ExceptionUtils.log(e);
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                waiters.decrementAndGet();
             }
         }
 
+        private void enqueue(Task task) {
+            enqueued.add(task.size());
+            queue.offer(task);
+            waitStrategy.signal(waiter);
+        }
+
+        /**
+         * 分区执行线程自身调用, 执行完当前task后退出
+         */
+        private void stop() {
+            isStopped = true;
+            wakeupWaiters();
+        }
+
         public void close() {
             isStopped = true;
             if (bind != null) {
                 bind.interrupt();
             }
+            wakeupWaiters();
+        }
+
+        private void wakeupWaiters() {
+            if (waiters.get() > 0) {
+                synchronized (this) {
+                    notifyAll();
+                }
+            }
         }
 
         public void run() {
             bind = Thread.currentThread();
+            waiter.bind();
+            int idleCount = 0;
             while (!isStopped && !Thread.currentThread().isInterrupted()) {
-                Task task = null;
-                try {
-                    task = queue.take();
-                    task.run();
-                } catch (InterruptedException e) {
-                    //执行中的task重新插入队头
-                    if (task != null) {
-                        queue.offer(task);
-                    }
-                } catch (Exception e) {
-                    ExceptionUtils.log(e);
+                long startNanos = System.nanoTime();
+                if (drain() > 0) {
+                    //按批统计耗时, 避免每个task都调用nanoTime()
+                    BUSY_NANOS_UPDATER.lazySet(this, busyNanos + (System.nanoTime() - startNanos));
+                    idleCount = 0;
+                } else {
+                    waitStrategy.await(waiter, idleCount++);
                 }
             }
             isTerminated = true;
         }
+
+        /**
+         * 批量消费, 中途停止则不再消费
+         */
+        private int drain() {
+            if (queue instanceof MpscQueue) {
+                return ((MpscQueue<Task>) queue).drain(this::runTask, DRAIN_BATCH);
+            }
+            int count = 0;
+            Task task;
+            while (count < DRAIN_BATCH && !isStopped && (task = queue.poll()) != null) {
+                count++;
+                runTask(task);
+            }
+            return count;
+        }
+
+        private void runTask(Task task) {
+            try {
+                task.run();
+            } catch (Exception e) {
+                ExceptionUtils.log(e);
+            } finally {
+                afterRun(task);
+            }
+        }
+
+        /**
+         * 分区执行线程执行完task后统计, lazySet避免每个task都有StoreLoad屏障
+         */
+        private void afterRun(Task task) {
+            if (capacity > 0) {
+                size.decrementAndGet();
+                wakeupWaiters();
+            }
+            long prevCompleted = completed;
+            long nowCompleted = prevCompleted + task.size();
+            COMPLETED_UPDATER.lazySet(this, nowCompleted);
+            //跨过采样间隔则采样, BatchTask只采样第一个key
+            if ((prevCompleted >>> KEY_SAMPLE_SHIFT) != (nowCompleted >>> KEY_SAMPLE_SHIFT) && task.key != null) {
+                sampledKeys.lazySet((int) (nowCompleted >>> KEY_SAMPLE_SHIFT) & (KEY_SAMPLE_SIZE - 1), task.key);
+            }
+        }
     }
 }
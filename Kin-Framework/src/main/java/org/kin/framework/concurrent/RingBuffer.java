@@ -0,0 +1,241 @@
+package org.kin.framework.concurrent;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Created by huangjianqin on 2018/11/28.
+ * 预分配的环形缓冲区(参考Disruptor), 单消费者
+ * 生产者通过序号申请slot, 写入后发布; 消费者按序号批量消费, 消费完一批才更新消费进度
+ * 入队出队都不加锁, 也不为每个元素分配节点
+ * <p>
+ * 缓冲区满时生产者yield/park等待消费者, 因此消费者线程不能向同一缓冲区生产, 否则可能死锁
+ */
+public class RingBuffer<E> {
+    //缓冲区满时, 生产者park前的yield次数
+    private static final int SPIN_TRIES = 100;
+
+    /**
+     * 生产者类型
+     */
+    public enum ProducerType {
+        /**
+         * 只有一个生产者线程, 申请序号无需CAS
+         */
+        SINGLE,
+        /**
+         * 多个生产者线程, CAS申请序号, 每个slot单独标记是否已发布
+         */
+        MULTI,
+    }
+
+    private final Object[] entries;
+    private final int mask;
+    private final int indexShift;
+    private final ProducerType producerType;
+    //单生产者: 已发布的最大序号; 多生产者: 已申请的最大序号
+    private final Sequence cursor = new Sequence(-1);
+    //消费者已消费的最大序号
+    private final Sequence consumed = new Sequence(-1);
+    //多生产者时, 缓存的消费进度, 减少读取consumed
+    private final Sequence gatingCache = new Sequence(-1);
+    //多生产者时, 每个slot已发布的圈数
+    private final AtomicIntegerArray availableBuffer;
+
+    //单生产者线程本地状态
+    private long nextValue = -1;
+    private long cachedConsumed = -1;
+
+    /**
+     * @param bufferSize 会向上取整为2的n次方
+     */
+    public RingBuffer(int bufferSize, ProducerType producerType) {
+        Preconditions.checkArgument(bufferSize > 0 && bufferSize <= 1 << 30, "bufferSize must be in (0, 2^30]");
+        int size = 1;
+        while (size < bufferSize) {
+            size <<= 1;
+        }
+        this.entries = new Object[size];
+        this.mask = size - 1;
+        this.indexShift = Integer.numberOfTrailingZeros(size);
+        this.producerType = producerType;
+        if (producerType == ProducerType.MULTI) {
+            int[] available = new int[size];
+            Arrays.fill(available, -1);
+            this.availableBuffer = new AtomicIntegerArray(available);
+        } else {
+            this.availableBuffer = null;
+        }
+    }
+
+    /**
+     * 生产者调用, 缓冲区满时等待消费者
+     */
+    public void put(E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        long sequence = producerType == ProducerType.SINGLE ? nextSingle() : nextMulti();
+        entries[(int) sequence & mask] = e;
+        publish(sequence);
+    }
+
+    private long nextSingle() {
+        long next = nextValue + 1;
+        long wrapPoint = next - entries.length;
+        if (wrapPoint > cachedConsumed) {
+            long minSequence;
+            int tries = 0;
+            while (wrapPoint > (minSequence = consumed.get())) {
+                waitForConsumer(tries++);
+            }
+            cachedConsumed = minSequence;
+        }
+        nextValue = next;
+        return next;
+    }
+
+    private long nextMulti() {
+        int tries = 0;
+        for (; ; ) {
+            long current = cursor.get();
+            long next = current + 1;
+            long wrapPoint = next - entries.length;
+            long cachedGating = gatingCache.get();
+            if (wrapPoint > cachedGating) {
+                long gating = consumed.get();
+                if (wrapPoint > gating) {
+                    waitForConsumer(tries++);
+                    continue;
+                }
+                gatingCache.set(gating);
+            } else if (cursor.compareAndSet(current, next)) {
+                return next;
+            }
+        }
+    }
+
+    /**
+     * 缓冲区满, 先yield让出CPU给消费者, 仍未有空闲slot再park
+     */
+    private void waitForConsumer(int tries) {
+        if (tries < SPIN_TRIES) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(1L);
+        }
+    }
+
+    private void publish(long sequence) {
+        //volatile写, 与随后检查消费者是否park构成Dekker式同步
+        if (producerType == ProducerType.SINGLE) {
+            cursor.set(sequence);
+        } else {
+            availableBuffer.set((int) sequence & mask, (int) (sequence >>> indexShift));
+        }
+    }
+
+    private boolean isAvailable(long sequence) {
+        return availableBuffer.get((int) sequence & mask) == (int) (sequence >>> indexShift);
+    }
+
+    /**
+     * 消费者调用, 批量消费已发布的元素, 最多@param limit个
+     *
+     * @return 实际消费元素个数
+     */
+    @SuppressWarnings("unchecked")
+    public int drain(Consumer<? super E> consumer, int limit) {
+        long current = consumed.get();
+        long next = current + 1;
+        long available = cursor.get();
+        if (producerType == ProducerType.MULTI) {
+            long highest = next - 1;
+            while (highest < available && isAvailable(highest + 1)) {
+                highest++;
+            }
+            available = highest;
+        }
+        if (available < next) {
+            return 0;
+        }
+        long end = Math.min(available, current + limit);
+        long sequence = next;
+        try {
+            for (; sequence <= end; sequence++) {
+                int index = (int) sequence & mask;
+                E e = (E) entries[index];
+                //help gc
+                entries[index] = null;
+                consumer.accept(e);
+            }
+        } finally {
+            //消费完一批才释放slot, 抛异常时只释放已消费的
+            consumed.lazySet(Math.min(sequence, end));
+        }
+        return (int) (end - current);
+    }
+
+    /**
+     * 消费者视角是否为空, 可作为park前的最后检查
+     */
+    public boolean isEmpty() {
+        long next = consumed.get() + 1;
+        if (producerType == ProducerType.SINGLE) {
+            return cursor.get() < next;
+        }
+        //多生产者时, 已申请但未发布也视为空, 避免生产者被抢占时消费者空转
+        return !isAvailable(next);
+    }
+
+    public int size() {
+        return (int) Math.max(cursor.get() - consumed.get(), 0);
+    }
+
+    public int capacity() {
+        return entries.length;
+    }
+
+    //-----------------------------------------------------------------------------------------------------------
+    private static class LhsPadding {
+        protected long p1, p2, p3, p4, p5, p6, p7;
+    }
+
+    private static class Value extends LhsPadding {
+        protected volatile long value;
+    }
+
+    /**
+     * 前后填充, 避免生产者序号与消费者序号伪共享
+     */
+    private static class Sequence extends Value {
+        private static final AtomicLongFieldUpdater<Value> UPDATER = AtomicLongFieldUpdater.newUpdater(Value.class, "value");
+
+        protected long p9, p10, p11, p12, p13, p14, p15;
+
+        Sequence(long initial) {
+            this.value = initial;
+        }
+
+        long get() {
+            return value;
+        }
+
+        void set(long value) {
+            this.value = value;
+        }
+
+        void lazySet(long value) {
+            UPDATER.lazySet(this, value);
+        }
+
+        boolean compareAndSet(long expect, long update) {
+            return UPDATER.compareAndSet(this, expect, update);
+        }
+    }
+}
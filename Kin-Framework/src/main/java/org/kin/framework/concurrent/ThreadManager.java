@@ -3,8 +3,13 @@ package org.kin.framework.concurrent;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import org.kin.framework.utils.Constants;
+import org.kin.framework.utils.ExceptionUtils;
 import org.kin.framework.utils.SysUtils;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
 import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.*;
@@ -13,22 +18,27 @@ import java.util.concurrent.*;
  * Created by huangjianqin on 2018/1/24.
  */
 public class ThreadManager implements ScheduledExecutorService {
+    private static final String HASHED_WHEEL = "HashedWheel";
     public static ThreadManager DEFAULT;
 
     static {
-        String executorTypeStr = System.getenv(Constants.DEFAULT_EXECUTOR);
-        if (!Strings.isNullOrEmpty(executorTypeStr)) {
-            ExecutorType executorType = ExecutorType.getByName(executorTypeStr);
-            DEFAULT = new ThreadManager(executorType.getExecutor());
-        } else {
-            DEFAULT = new ThreadManager();
-        }
+        //优先-D启动参数, 其次环境变量, 可选ForkJoin, ThreadPool, Virtual
+        String executorTypeStr = System.getProperty(Constants.DEFAULT_EXECUTOR, System.getenv(Constants.DEFAULT_EXECUTOR));
+        ExecutorService executor = Strings.isNullOrEmpty(executorTypeStr) ?
+                ExecutorType.THREADPOOL.getExecutor() : ExecutorType.getByName(executorTypeStr).getExecutor();
+        //可选HashedWheel, 其余使用ScheduledThreadPool
+        String schedulerStr = System.getProperty(Constants.DEFAULT_SCHEDULER, System.getenv(Constants.DEFAULT_SCHEDULER));
+        ScheduledExecutorService scheduleExecutor = HASHED_WHEEL.equalsIgnoreCase(schedulerStr) ?
+                new HashedWheelTimer(executor, 10, TimeUnit.MILLISECONDS, 512) : Executors.newScheduledThreadPool(SysUtils.getSuitableThreadNum());
+        DEFAULT = instrumented("default", executor, scheduleExecutor);
     }
 
     //执行线程
     private ExecutorService executor = ExecutorType.THREADPOOL.getExecutor();
     //调度线程
     private ScheduledExecutorService scheduleExecutor = Executors.newScheduledThreadPool(SysUtils.getSuitableThreadNum());
+    //instrumented()创建时才有, 用于注册JMX
+    private String name;
 
     private ThreadManager() {
         hook();
@@ -50,6 +60,84 @@ public class ThreadManager implements ScheduledExecutorService {
         this.scheduleExecutor = scheduleExecutor;
     }
 
+    /**
+     * 调度部分使用哈希时间轮, 调度与取消都是O(1), 到期task由@param executor执行
+     * 适合大量低精度的延迟/周期task, 比如actor的定时消息
+     *
+     * @param tickDuration  调度精度
+     * @param ticksPerWheel 时间轮大小
+     */
+    public static ThreadManager hashedWheel(ExecutorService executor, long tickDuration, TimeUnit unit, int ticksPerWheel) {
+        return new ThreadManager(executor, new HashedWheelTimer(executor, tickDuration, unit, ticksPerWheel));
+    }
+
+    /**
+     * 监控执行线程与调度线程, 记录排队时间, 执行时间, 吞吐量及饱和度, 并通过JMX暴露
+     * ObjectName: org.kin.framework.concurrent:type=ThreadManager,name=@param name,executor=execution|scheduling
+     */
+    public static ThreadManager instrumented(String name, ExecutorService executor, ScheduledExecutorService scheduleExecutor) {
+        ThreadManager threadManager = new ThreadManager(
+                new InstrumentedExecutorService(name, executor),
+                new InstrumentedScheduledExecutorService(name, scheduleExecutor));
+        threadManager.name = name;
+        threadManager.registerMBean(threadManager.getExecutionMetrics(), "execution");
+        threadManager.registerMBean(threadManager.getSchedulingMetrics(), "scheduling");
+        return threadManager;
+    }
+
+    private ObjectName objectName(String executorType) throws JMException {
+        return new ObjectName("org.kin.framework.concurrent:type=ThreadManager,name=" + ObjectName.quote(name) + ",executor=" + executorType);
+    }
+
+    private void registerMBean(ExecutorMetrics metrics, String executorType) {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = objectName(executorType);
+            //同名ThreadManager, 以最新的为准
+            if (mBeanServer.isRegistered(objectName)) {
+                mBeanServer.unregisterMBean(objectName);
+            }
+            mBeanServer.registerMBean(metrics, objectName);
+        } catch (JMException e) {
+            ExceptionUtils.log(e);
+        }
+    }
+
+    private void unregisterMBeans() {
+        if (name == null) {
+            return;
+        }
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            for (String executorType : new String[]{"execution", "scheduling"}) {
+                ObjectName objectName = objectName(executorType);
+                if (mBeanServer.isRegistered(objectName)) {
+                    mBeanServer.unregisterMBean(objectName);
+                }
+            }
+        } catch (JMException e) {
+            ExceptionUtils.log(e);
+        }
+    }
+
+    /**
+     * @return 执行线程的监控指标, 非instrumented()创建则返回null
+     */
+    public ExecutorMetrics getExecutionMetrics() {
+        return executor instanceof InstrumentedExecutorService ? ((InstrumentedExecutorService) executor).getMetrics() : null;
+    }
+
+    /**
+     * @return 调度线程的监控指标, 非instrumented()创建则返回null
+     */
+    public ExecutorMetrics getSchedulingMetrics() {
+        return scheduleExecutor instanceof InstrumentedExecutorService ? ((InstrumentedExecutorService) scheduleExecutor).getMetrics() : null;
+    }
+
+    public String getName() {
+        return name;
+    }
+
     private void hook() {
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             if (!isShutdown()) {
@@ -82,6 +170,7 @@ public class ThreadManager implements ScheduledExecutorService {
     public void shutdown() {
         executor.shutdown();
         scheduleExecutor.shutdown();
+        unregisterMBeans();
     }
 
     @Override
@@ -89,6 +178,7 @@ public class ThreadManager implements ScheduledExecutorService {
         List<Runnable> tasks = Lists.newArrayList();
         tasks.addAll(executor.shutdownNow());
         tasks.addAll(scheduleExecutor.shutdownNow());
+        unregisterMBeans();
         return tasks;
     }
 
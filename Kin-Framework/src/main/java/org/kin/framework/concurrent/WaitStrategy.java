@@ -0,0 +1,22 @@
+package org.kin.framework.concurrent;
+
+/**
+ * Created by huangjianqin on 2018/11/20.
+ * 消费者线程没有可消费元素时的等待策略
+ * 用CPU换取更低的交接延迟: 自旋 < 让出CPU < park
+ */
+public interface WaitStrategy {
+    /**
+     * 消费者线程调用, 没有可消费元素时等待
+     *
+     * @param idleCount 连续空闲次数, 消费到元素后由消费者重置为0
+     */
+    void await(Waiter waiter, int idleCount);
+
+    /**
+     * 生产者入队后调用, 唤醒可能park的消费者
+     *
+     * @return 是否唤醒了消费者
+     */
+    boolean signal(Waiter waiter);
+}
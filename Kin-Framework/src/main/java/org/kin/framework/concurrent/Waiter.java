@@ -0,0 +1,54 @@
+package org.kin.framework.concurrent;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Created by huangjianqin on 2018/11/20.
+ * 一个消费者线程的等待上下文, 由{@link WaitStrategy}使用
+ */
+public final class Waiter {
+    //是否有可消费元素, park前需再次检查, 防止丢失唤醒
+    private final BooleanSupplier available;
+    //绑定的消费者线程
+    private volatile Thread thread;
+    //消费者是否准备park, 只有成功将其由true改为false的生产者才unpark, 避免每个元素都unpark
+    private final AtomicBoolean parked = new AtomicBoolean();
+
+    public Waiter(BooleanSupplier available) {
+        this.available = available;
+    }
+
+    /**
+     * 消费者线程开始消费前调用
+     */
+    public void bind() {
+        thread = Thread.currentThread();
+    }
+
+    /**
+     * 消费者线程调用, 没有可消费元素时park, 直到被生产者唤醒或被中断
+     */
+    public void park() {
+        parked.set(true);
+        //先声明park再检查, 与生产者先入队再检查parked构成Dekker式同步, 不会丢失唤醒
+        if (!available.getAsBoolean()) {
+            LockSupport.park(this);
+        }
+        parked.set(false);
+    }
+
+    /**
+     * 生产者调用
+     *
+     * @return 是否唤醒了park的消费者
+     */
+    public boolean unpark() {
+        if (parked.get() && parked.compareAndSet(true, false)) {
+            LockSupport.unpark(thread);
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,21 @@
+package org.kin.framework.concurrent.impl;
+
+import org.kin.framework.concurrent.WaitStrategy;
+import org.kin.framework.concurrent.Waiter;
+
+/**
+ * Created by huangjianqin on 2018/11/20.
+ * 没有可消费元素立即park, 等同于BlockingQueue.take()
+ * CPU占用最低, 但每次交接都要付出park/unpark的代价
+ */
+public class BlockingWaitStrategy implements WaitStrategy {
+    @Override
+    public void await(Waiter waiter, int idleCount) {
+        waiter.park();
+    }
+
+    @Override
+    public boolean signal(Waiter waiter) {
+        return waiter.unpark();
+    }
+}
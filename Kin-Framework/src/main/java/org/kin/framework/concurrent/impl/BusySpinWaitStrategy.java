@@ -0,0 +1,21 @@
+package org.kin.framework.concurrent.impl;
+
+import org.kin.framework.concurrent.WaitStrategy;
+import org.kin.framework.concurrent.Waiter;
+
+/**
+ * Created by huangjianqin on 2018/11/20.
+ * 一直自旋, 交接延迟最低, 但消费者线程会独占一个CPU核
+ * 仅适用于消费者线程数不超过CPU核数的场景
+ */
+public class BusySpinWaitStrategy implements WaitStrategy {
+    @Override
+    public void await(Waiter waiter, int idleCount) {
+        //spin
+    }
+
+    @Override
+    public boolean signal(Waiter waiter) {
+        return false;
+    }
+}
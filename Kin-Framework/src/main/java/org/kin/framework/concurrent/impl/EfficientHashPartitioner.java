@@ -6,11 +6,19 @@ import org.kin.framework.concurrent.Partitioner;
  * Created by huangjianqin on 2018/11/5.
  * HashMap的Hash方式
  * 更高效的hash方式
+ * 仅当分区数为2的n次方时才能用位与代替取模, 否则退化为取模, 避免部分分区永远分配不到key
  */
 public class EfficientHashPartitioner<K> implements Partitioner<K> {
     public int toPartition(K key, int numPartition) {
+        if (key == null) {
+            return 0;
+        }
         int h;
         //高低位异或 目的是增加hash的复杂度
-        return key == null ? 0 : (((h = key.hashCode()) ^ h >>> 16) & (numPartition - 1));
+        h = (h = key.hashCode()) ^ h >>> 16;
+        if ((numPartition & (numPartition - 1)) == 0) {
+            return h & (numPartition - 1);
+        }
+        return (h & Integer.MAX_VALUE) % numPartition;
     }
 }
@@ -0,0 +1,40 @@
+package org.kin.framework.concurrent.impl;
+
+import org.kin.framework.concurrent.Partitioner;
+
+/**
+ * Created by huangjianqin on 2018/11/14.
+ * Jump Consistent Hash(Lamping & Veach)
+ * 分区数由n变为n+1时, 只有约1/(n+1)的key会迁移到新分区, 其余key分区不变; 缩容同理
+ * 分区数无需为2的n次方, 不需要额外内存, 时间复杂度O(ln n)
+ */
+public class JumpConsistentHashPartitioner<K> implements Partitioner<K> {
+    @Override
+    public int toPartition(K key, int numPartition) {
+        if (key == null) {
+            return 0;
+        }
+        long k = mix(key.hashCode());
+        long b = -1;
+        long j = 0;
+        while (j < numPartition) {
+            b = j;
+            k = k * 2862933555777941757L + 1;
+            j = (long) ((b + 1) * ((double) (1L << 31) / (double) ((k >>> 33) + 1)));
+        }
+        return (int) b;
+    }
+
+    /**
+     * 将32位hashCode打散成64位, 避免hashCode分布不均(如连续整数)导致分区倾斜
+     */
+    private static long mix(int hashCode) {
+        long h = hashCode;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,40 @@
+package org.kin.framework.concurrent.impl;
+
+import org.kin.framework.concurrent.WaitStrategy;
+import org.kin.framework.concurrent.Waiter;
+
+/**
+ * Created by huangjianqin on 2018/11/20.
+ * 先自旋, 再Thread.yield(), 仍然没有可消费元素则park直到生产者唤醒
+ * 短暂空闲时延迟低, 长时间空闲时不占用CPU
+ */
+public class SpinYieldParkWaitStrategy implements WaitStrategy {
+    private final int spinTries;
+    private final int yieldTries;
+
+    public SpinYieldParkWaitStrategy() {
+        this(100, 100);
+    }
+
+    public SpinYieldParkWaitStrategy(int spinTries, int yieldTries) {
+        this.spinTries = spinTries;
+        this.yieldTries = yieldTries;
+    }
+
+    @Override
+    public void await(Waiter waiter, int idleCount) {
+        if (idleCount < spinTries) {
+            return;
+        }
+        if (idleCount < spinTries + yieldTries) {
+            Thread.yield();
+            return;
+        }
+        waiter.park();
+    }
+
+    @Override
+    public boolean signal(Waiter waiter) {
+        return waiter.unpark();
+    }
+}
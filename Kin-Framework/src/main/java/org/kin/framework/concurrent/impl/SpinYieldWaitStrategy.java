@@ -0,0 +1,33 @@
+package org.kin.framework.concurrent.impl;
+
+import org.kin.framework.concurrent.WaitStrategy;
+import org.kin.framework.concurrent.Waiter;
+
+/**
+ * Created by huangjianqin on 2018/11/20.
+ * 先自旋一定次数, 之后每次都Thread.yield()
+ * 延迟略高于BusySpin, 但空闲时会让出CPU给其他线程
+ */
+public class SpinYieldWaitStrategy implements WaitStrategy {
+    private final int spinTries;
+
+    public SpinYieldWaitStrategy() {
+        this(100);
+    }
+
+    public SpinYieldWaitStrategy(int spinTries) {
+        this.spinTries = spinTries;
+    }
+
+    @Override
+    public void await(Waiter waiter, int idleCount) {
+        if (idleCount >= spinTries) {
+            Thread.yield();
+        }
+    }
+
+    @Override
+    public boolean signal(Waiter waiter) {
+        return false;
+    }
+}
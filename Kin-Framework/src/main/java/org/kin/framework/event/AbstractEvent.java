@@ -1,10 +1,12 @@
 package org.kin.framework.event;
 
+import java.io.Serializable;
+
 /**
  * Created by 健勤 on 2017/8/8.
  * 事件的抽象
  */
-public abstract class AbstractEvent<TYPE extends Enum<TYPE>> implements Event<TYPE> {
+public abstract class AbstractEvent<TYPE extends Enum<TYPE>> implements Event<TYPE>, Serializable {
     private final TYPE type;
     private final long timestamp;
 
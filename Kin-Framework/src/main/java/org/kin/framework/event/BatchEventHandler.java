@@ -0,0 +1,21 @@
+package org.kin.framework.event;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Created by huangjianqin on 2018/12/4.
+ * 支持批量处理的事件处理器, 比如批量写HBase, Kafka, 以分摊I/O开销
+ * AsyncDispatcher开启批量分发后, 同一类型的事件按提交顺序分批交给{@link #handleBatch(List)}
+ */
+public interface BatchEventHandler<T extends Event> extends EventHandler<T> {
+    /**
+     * @param events 同一类型的一批事件, 按提交顺序排列, 不可修改
+     */
+    void handleBatch(List<T> events);
+
+    @Override
+    default void handle(T event) {
+        handleBatch(Collections.singletonList(event));
+    }
+}
@@ -0,0 +1,13 @@
+package org.kin.framework.event;
+
+/**
+ * Created by huangjianqin on 2018/12/6.
+ * 可合并的事件, 新事件会使同一key的旧事件失效, 比如"X状态已刷新"
+ * AsyncDispatcher使用{@link org.kin.framework.event.impl.CoalescingEventQueue}时, 同一类型同一key的事件在队列中最多只有一个
+ */
+public interface CoalescingEvent<TYPE extends Enum<TYPE>> extends Event<TYPE> {
+    /**
+     * @return 合并key, 比如实体id, null则不合并
+     */
+    Object getCoalescingKey();
+}
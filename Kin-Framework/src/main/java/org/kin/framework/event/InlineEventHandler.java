@@ -0,0 +1,9 @@
+package org.kin.framework.event;
+
+/**
+ * Created by huangjianqin on 2018/12/8.
+ * 可重入的事件处理器, 即可以在提交事件的线程内直接处理, 不依赖分发线程的线程上下文, 且处理耗时短
+ * AsyncDispatcher开启内联分发后, 没有排队事件时直接在提交线程处理, 省去入队, 唤醒及线程切换
+ */
+public interface InlineEventHandler<T extends Event> extends EventHandler<T> {
+}
@@ -0,0 +1,13 @@
+package org.kin.framework.event;
+
+/**
+ * Created by huangjianqin on 2018/12/2.
+ * 需按key保序分发的事件
+ * AsyncDispatcher保序模式下, 同一key的事件按提交顺序在同一线程处理, 不同key的事件并行处理
+ */
+public interface OrderedEvent<TYPE extends Enum<TYPE>> extends Event<TYPE> {
+    /**
+     * @return 保序key, 比如实体id
+     */
+    Object getOrderKey();
+}
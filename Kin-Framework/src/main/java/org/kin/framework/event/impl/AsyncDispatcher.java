@@ -1,37 +1,95 @@
 package org.kin.framework.event.impl;
 
 
+import org.kin.framework.concurrent.LatencyHistogram;
+import org.kin.framework.concurrent.PartitionTaskExecutor;
+import org.kin.framework.concurrent.RingBuffer;
+import org.kin.framework.concurrent.ThreadManager;
+import org.kin.framework.concurrent.WaitStrategy;
+import org.kin.framework.concurrent.Waiter;
+import org.kin.framework.concurrent.impl.JumpConsistentHashPartitioner;
+import org.kin.framework.concurrent.impl.SpinYieldParkWaitStrategy;
+import org.kin.framework.event.BatchEventHandler;
 import org.kin.framework.event.Dispatcher;
 import org.kin.framework.event.Event;
 import org.kin.framework.event.EventHandler;
+import org.kin.framework.event.InlineEventHandler;
+import org.kin.framework.event.OrderedEvent;
 import org.kin.framework.service.AbstractService;
+import org.kin.framework.utils.ExceptionUtils;
+import org.kin.framework.utils.SysUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 
 /**
  * Created by 健勤 on 2017/8/8.
  * 异步事件分发器
  * 支持多线程事件处理
+ * 开启优化时, 由后台定时任务根据积压事件数及事件处理耗时增减分发线程, 提交事件只需入队
+ * <p>
+ * 也支持环形缓冲区模式: 事件写入预分配的{@link RingBuffer}, 由单一分发线程按序批量消费
+ * 没有锁竞争, 也不为每个事件分配队列节点, 适合事件量大的场景
+ * <p>
+ * 以及保序模式: 事件按保序key路由到{@link PartitionTaskExecutor}的分区, 同一key的事件按提交顺序处理, 不同key的事件并行处理
+ * <p>
+ * 队列模式下可使用{@link PriorityEventQueue}, 按事件类型分通道, 控制类事件优先分发
+ * 也可使用{@link CoalescingEventQueue}, 同一key的新事件替换排队中的旧事件
+ * <p>
+ * 队列模式下可开启事件日志{@link #enableJournal(EventJournal)}, 事件入队前先追加到日志, 处理完后确认, 重启时回放未确认的事件
+ * <p>
+ * 队列模式下可开启内联分发{@link #enableInline()}, 没有待处理事件时直接在提交线程处理, 不支持{@link CoalescingEventQueue}
+ * <p>
+ * 队列模式及环形缓冲区模式可开启批量分发{@link #enableBatch(int, long, TimeUnit)}, 同一类型的事件整批交给{@link BatchEventHandler}
  */
 public class AsyncDispatcher extends AbstractService implements Dispatcher {
     private static Logger log = LoggerFactory.getLogger(AsyncDispatcher.class);
+    //环形缓冲区模式下, 每次批量消费事件的最大数量
+    private static final int DRAIN_BATCH = 1024;
+    //用于生成JMX ObjectName
+    private static final AtomicInteger ID_GENERATOR = new AtomicInteger();
+    //自动扩缩容的采样周期
+    private static final long SCALING_PERIOD_MS = 200;
+    //每条线程理想的最大积压事件数, 没有耗时数据时据此扩容
+    private static final int EVENTS_PER_THREAD = 1000;
+    //积压事件预计处理时间超过该值则扩容
+    private static final long SCALE_UP_BACKLOG_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    //积压事件预计处理时间低于该值则缩容
+    private static final long SCALE_DOWN_BACKLOG_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    //连续多少次采样过载才扩容, 连续多少次采样空闲才缩容, 避免线程数抖动
+    private static final int SCALE_UP_SAMPLES = 2;
+    private static final int SCALE_DOWN_SAMPLES = 10;
+    //每多少个事件抽样统计一次处理耗时, 2的n次方
+    private static final int LATENCY_SAMPLE_INTERVAL = 8;
 
     //缓存所有待分发的时间
     private final BlockingQueue<Event> eventQueue;
+    //环形缓冲区模式下缓存所有待分发的事件, 此时eventQueue为null
+    private final RingBuffer<Event> ringBuffer;
+    //保序模式下按key分区处理事件, 此时eventQueue为null
+    private final PartitionTaskExecutor<Object> orderedExecutor;
+    //保序模式下获取事件的保序key
+    private final Function<Event, Object> orderKeyMapper;
     //负责分发事件的线程
     private final ThreadPoolExecutor pool;
-    //存储事件与其对应的事件处理器的映射
-    protected final Map<Class<? extends Enum>, EventHandler> event2Dispatcher;
+    //事件类型 -> 事件处理器, 按注册顺序, 注册时需同步
+    private final Map<Class<? extends Enum>, List<EventHandler>> registrations = new LinkedHashMap<>();
+    //由registrations构建的不可变分发表, 注册时重建并整体替换, volatile保证分发线程看到完整的表
+    private volatile DispatchTable dispatchTable = DispatchTable.EMPTY;
 
     //负责将事件进队的事件处理器
-    private final EventHandler innerHandler = new GenericEventHandler();
+    private final EventHandler innerHandler;
     //事件分发线程
     private List<EventHandlerThread> eventHandlerThreads = new LinkedList<>();
     //事件分发线程数最大值
@@ -41,6 +99,25 @@ public class AsyncDispatcher extends AbstractService implements Dispatcher {
     private boolean optimized = false;
     //lock
     private final Object lock = new Object();
+    //事件分发线程没有事件时的等待策略, null则阻塞在BlockingQueue.take()
+    private final WaitStrategy waitStrategy;
+    //使用等待策略时, 所有事件分发线程的等待上下文
+    private final List<Waiter> waiters = new CopyOnWriteArrayList<>();
+    //开启优化时, 自动扩缩容控制器
+    private ScalingController scalingController;
+    //每批最多分发的事件数, 1则不开启批量分发
+    private int maxBatchSize = 1;
+    //队列模式下, 凑满一批最多等待的时间
+    private long batchWaitNanos;
+    //事件日志, null则不开启
+    private EventJournal journal;
+    //是否开启内联分发
+    private boolean inline;
+    //开启内联分发时, 已提交但未处理完的事件数, 为0才可内联分发
+    private final AtomicLong pendingEvents = new AtomicLong();
+    //开启内联分发时, 内联分发及入队分发的事件数
+    private final LongAdder inlineDispatchedCount = new LongAdder();
+    private final LongAdder queuedDispatchedCount = new LongAdder();
 
     public AsyncDispatcher() {
         this(new LinkedBlockingQueue<>(), Integer.MAX_VALUE, true);
@@ -59,14 +136,202 @@ public class AsyncDispatcher extends AbstractService implements Dispatcher {
     }
 
     public AsyncDispatcher(BlockingQueue<Event> eventQueue, int maxThreads, boolean optimized) {
+        this(eventQueue, maxThreads, optimized, null);
+    }
+
+    public AsyncDispatcher(int maxThreads, boolean optimized, WaitStrategy waitStrategy) {
+        this(new LinkedBlockingQueue<>(), maxThreads, optimized, waitStrategy);
+    }
+
+    public AsyncDispatcher(BlockingQueue<Event> eventQueue, int maxThreads, boolean optimized, WaitStrategy waitStrategy) {
         super("AsyncDispatcher");
+        this.waitStrategy = waitStrategy;
         this.eventQueue = eventQueue;
-        event2Dispatcher = new HashMap<>();
+        this.ringBuffer = null;
+        this.orderedExecutor = null;
+        this.orderKeyMapper = null;
+        this.innerHandler = new GenericEventHandler();
         this.optimized = optimized;
         this.THREADS_LIMIT = maxThreads;
         pool = new ThreadPoolExecutor(1, this.THREADS_LIMIT, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new InnerThreadFactory());
     }
 
+    /**
+     * 环形缓冲区模式, 单一分发线程, 不会动态增加分发线程
+     * 缓冲区满时提交事件的线程会等待, 因此事件处理器内不能再提交事件, 否则可能死锁
+     *
+     * @param bufferSize   缓冲区大小, 会向上取整为2的n次方
+     * @param producerType 只有一个线程提交事件时可用SINGLE, 否则需用MULTI
+     * @param waitStrategy 分发线程没有事件时的等待策略, null则先自旋再yield最后park
+     */
+    public AsyncDispatcher(int bufferSize, RingBuffer.ProducerType producerType, WaitStrategy waitStrategy) {
+        super("AsyncDispatcher");
+        this.waitStrategy = waitStrategy != null ? waitStrategy : new SpinYieldParkWaitStrategy();
+        this.eventQueue = null;
+        this.ringBuffer = new RingBuffer<>(bufferSize, producerType);
+        this.orderedExecutor = null;
+        this.orderKeyMapper = null;
+        this.innerHandler = new RingBufferEventHandler();
+        this.optimized = false;
+        this.THREADS_LIMIT = 1;
+        pool = new ThreadPoolExecutor(1, this.THREADS_LIMIT, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new InnerThreadFactory());
+    }
+
+    /**
+     * 保序模式, 事件按@param orderKeyMapper返回的key路由到分区, 同一key的事件按提交顺序处理
+     * 分区线程由PartitionTaskExecutor管理, 不会动态增减
+     *
+     * @param partitionNum   分区数, 即并行处理事件的线程数
+     * @param orderKeyMapper 返回null则该事件不需保序, 轮询分配分区
+     */
+    public AsyncDispatcher(int partitionNum, Function<Event, Object> orderKeyMapper) {
+        super("AsyncDispatcher");
+        this.waitStrategy = null;
+        this.eventQueue = null;
+        this.ringBuffer = null;
+        this.orderedExecutor = new PartitionTaskExecutor<>(partitionNum, new JumpConsistentHashPartitioner<>(), PartitionTaskExecutor.QueueType.MPSC);
+        this.orderKeyMapper = orderKeyMapper;
+        this.innerHandler = new OrderedEventHandler();
+        this.optimized = false;
+        this.THREADS_LIMIT = partitionNum;
+        pool = new ThreadPoolExecutor(1, 1, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new InnerThreadFactory());
+    }
+
+    /**
+     * 保序模式, 实现{@link OrderedEvent}的事件按其保序key保序, 其余事件不保序
+     */
+    public static AsyncDispatcher ordered(int partitionNum) {
+        return new AsyncDispatcher(partitionNum, event -> event instanceof OrderedEvent ? ((OrderedEvent) event).getOrderKey() : null);
+    }
+
+    /**
+     * 保序模式, 分区数为CPU核数
+     */
+    public static AsyncDispatcher ordered() {
+        return ordered(SysUtils.CPU_NUM);
+    }
+
+    /**
+     * 合并模式, 实现{@link org.kin.framework.event.CoalescingEvent}的事件会替换排队中同一类型同一key的旧事件
+     */
+    public static AsyncDispatcher coalescing(int maxThreads) {
+        return new AsyncDispatcher(new CoalescingEventQueue(), maxThreads, true);
+    }
+
+    /**
+     * 合并模式, 事件分发线程数最大值为CPU核数
+     */
+    public static AsyncDispatcher coalescing() {
+        return coalescing(SysUtils.CPU_NUM);
+    }
+
+    /**
+     * 开启批量分发, 需在{@link #serviceStart()}前调用
+     * 分发线程每次取出最多@param maxBatchSize个事件, 按事件类型分组后整批分发, 同一类型的事件保持提交顺序, 不同类型之间不保证顺序
+     * 环形缓冲区模式下只消费已发布的事件, 不会等待凑满一批
+     * 保序模式下不支持批量分发
+     *
+     * @param maxWait 队列模式下, 已取出的事件不足一批时最多等待多久, 0则有多少分发多少
+     */
+    public AsyncDispatcher enableBatch(int maxBatchSize, long maxWait, TimeUnit unit) {
+        if (maxBatchSize <= 0 || maxWait < 0) {
+            throw new IllegalArgumentException("maxBatchSize must be greater than 0 and maxWait must not be negative");
+        }
+        if (orderedExecutor != null) {
+            throw new UnsupportedOperationException("ordered AsyncDispatcher doesn't support batch dispatch");
+        }
+        this.maxBatchSize = maxBatchSize;
+        this.batchWaitNanos = unit.toNanos(maxWait);
+        return this;
+    }
+
+    /**
+     * 开启事件日志, 需在{@link #serviceStart()}前调用, 仅支持队列模式, 由dispatcher负责关闭
+     * 启动时先回放日志中未确认的事件, 事件处理完(包括处理异常)后确认
+     * 事件入队时被日志包装, 因此不能与{@link CoalescingEventQueue}同时使用
+     */
+    public AsyncDispatcher enableJournal(EventJournal journal) {
+        if (eventQueue == null) {
+            throw new UnsupportedOperationException("only AsyncDispatcher with event queue supports journal");
+        }
+        if (inline) {
+            throw new UnsupportedOperationException("inline dispatch doesn't support journal");
+        }
+        if (eventQueue instanceof CoalescingEventQueue) {
+            //入队的是日志包装后的事件, 无法合并
+            throw new UnsupportedOperationException("journal doesn't support coalescing event queue");
+        }
+        this.journal = journal;
+        return this;
+    }
+
+    /**
+     * 开启内联分发, 适合事件量少但对延迟敏感的场景, 需在{@link #serviceStart()}前调用, 仅支持队列模式, 不能与事件日志同时使用
+     * 事件的处理器均为{@link InlineEventHandler}, 且之前提交的事件都已处理完时, 直接在提交线程处理
+     * 否则(存在竞争)照常入队, 因此内联处理的事件不会早于之前提交的事件开始处理
+     * 与多线程分发一样, 内联处理期间提交的事件可能与其并行处理
+     * <p>
+     * 不能与{@link CoalescingEventQueue}同时使用: 被合并的事件不会出队, 已提交但未处理完的事件数无法归零
+     */
+    public AsyncDispatcher enableInline() {
+        if (eventQueue == null) {
+            throw new UnsupportedOperationException("only AsyncDispatcher with event queue supports inline dispatch");
+        }
+        if (journal != null) {
+            throw new UnsupportedOperationException("inline dispatch doesn't support journal");
+        }
+        if (eventQueue instanceof CoalescingEventQueue) {
+            throw new UnsupportedOperationException("inline dispatch doesn't support coalescing event queue");
+        }
+        this.inline = true;
+        return this;
+    }
+
+    /**
+     * 能内联分发则直接在当前线程处理
+     *
+     * @return 是否已内联分发
+     */
+    private boolean tryDispatchInline(Event event) {
+        DispatchTable table = dispatchTable;
+        int index = table.indexOf(event.getType().getDeclaringClass());
+        if (index < 0 || !table.inlineSafe[index] || !pendingEvents.compareAndSet(0, 1)) {
+            return false;
+        }
+        try {
+            dispatch(event);
+        } catch (Exception e) {
+            log.error("dispatch event '" + event + "' inline error", e);
+        } finally {
+            pendingEvents.decrementAndGet();
+        }
+        inlineDispatchedCount.increment();
+        return true;
+    }
+
+    /**
+     * 分发线程处理完@param num个事件
+     */
+    private void onQueuedDispatched(int num) {
+        if (inline) {
+            pendingEvents.addAndGet(-num);
+        }
+    }
+
+    /**
+     * @return 开启内联分发时, 在提交线程直接处理的事件数
+     */
+    public long getInlineDispatchedCount() {
+        return inlineDispatchedCount.sum();
+    }
+
+    /**
+     * @return 开启内联分发时, 因存在竞争或处理器不支持内联而入队的事件数
+     */
+    public long getQueuedDispatchedCount() {
+        return queuedDispatchedCount.sum();
+    }
+
     /**
      * 通过该方法获得eventhandler并handle event,本质上是添加进队列
      */
@@ -78,27 +343,27 @@ public class AsyncDispatcher extends AbstractService implements Dispatcher {
 
     @Override
     public void register(Class<? extends Enum> eventType, EventHandler handler) {
-        //event2Dispatcher需同步,防止多写的情况
-        synchronized (event2Dispatcher) {
-            EventHandler<Event> registered = event2Dispatcher.get(eventType);
-            if (registered == null) {
-                event2Dispatcher.put(eventType, handler);
-            } else if (!(registered instanceof MultiListenerHandler)) {
-                MultiListenerHandler multiHandler = new MultiListenerHandler();
-                multiHandler.addHandler(registered);
-                multiHandler.addHandler(handler);
-                event2Dispatcher.put(eventType, multiHandler);
-            } else {
-                ((MultiListenerHandler) registered).addHandler(handler);
-            }
+        //同步, 防止多写的情况; 分发线程只读取已发布的分发表, 不需同步
+        synchronized (registrations) {
+            registrations.computeIfAbsent(eventType, k -> new ArrayList<>()).add(handler);
+            dispatchTable = new DispatchTable(registrations);
         }
     }
 
 
     @Override
     public void dispatch(Event event) {
+        if (event instanceof JournaledEvent) {
+            JournaledEvent journaledEvent = (JournaledEvent) event;
+            try {
+                dispatch(journaledEvent.event);
+            } finally {
+                journal.ack(journaledEvent.sequence);
+            }
+            return;
+        }
         Class<? extends Enum> type = event.getType().getDeclaringClass();
-        EventHandler handler = event2Dispatcher.get(type);
+        EventHandler handler = dispatchTable.get(type);
         if (handler != null) {
             handler.handle(event);
         } else {
@@ -107,6 +372,73 @@ public class AsyncDispatcher extends AbstractService implements Dispatcher {
     }
 
 
+    /**
+     * 按事件类型分组, 整批交给事件处理器
+     * 某一类型的事件处理异常不影响同一批的其他类型
+     */
+    private void dispatchBatch(List<Event> events) {
+        if (journal != null) {
+            List<Event> unwrapped = new ArrayList<>(events.size());
+            for (Event event : events) {
+                unwrapped.add(event instanceof JournaledEvent ? ((JournaledEvent) event).event : event);
+            }
+            try {
+                dispatchBatch0(unwrapped);
+            } finally {
+                for (Event event : events) {
+                    if (event instanceof JournaledEvent) {
+                        journal.ack(((JournaledEvent) event).sequence);
+                    }
+                }
+            }
+            return;
+        }
+        dispatchBatch0(events);
+    }
+
+    private void dispatchBatch0(List<Event> events) {
+        Class<? extends Enum> firstType = events.get(0).getType().getDeclaringClass();
+        Map<Class<? extends Enum>, List<Event>> type2Events = null;
+        for (int i = 1; i < events.size(); i++) {
+            Class<? extends Enum> type = events.get(i).getType().getDeclaringClass();
+            if (type2Events == null && type != firstType) {
+                //出现不同类型才分组, 大部分情况下一批事件都是同一类型
+                type2Events = new LinkedHashMap<>();
+                type2Events.put(firstType, new ArrayList<>(events.subList(0, i)));
+            }
+            if (type2Events != null) {
+                type2Events.computeIfAbsent(type, k -> new ArrayList<>()).add(events.get(i));
+            }
+        }
+        if (type2Events == null) {
+            dispatchBatch(firstType, events);
+        } else {
+            for (Map.Entry<Class<? extends Enum>, List<Event>> entry : type2Events.entrySet()) {
+                dispatchBatch(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void dispatchBatch(Class<? extends Enum> type, List<Event> events) {
+        EventHandler handler = dispatchTable.get(type);
+        if (handler == null) {
+            log.error("doesn't have event handler to handle event " + type + ", discard " + events.size() + " events");
+            return;
+        }
+        try {
+            if (handler instanceof BatchEventHandler) {
+                ((BatchEventHandler) handler).handleBatch(Collections.unmodifiableList(events));
+            } else {
+                for (Event event : events) {
+                    handler.handle(event);
+                }
+            }
+        } catch (Exception e) {
+            log.error("dispatch " + events.size() + " events of " + type + " error", e);
+        }
+    }
+
     @Override
     public void serviceInit() {
         super.serviceInit();
@@ -114,16 +446,59 @@ public class AsyncDispatcher extends AbstractService implements Dispatcher {
 
     @Override
     public void serviceStart() {
-        //默认启动一条线程处理
+        if (orderedExecutor != null) {
+            //分区线程按需创建
+            super.serviceStart();
+            return;
+        }
+        //默认启动一条线程处理, 先于回放启动, 有界队列满时回放可阻塞等待
         runNEventHandlerThread(1);
+        if (journal != null) {
+            //先于新事件入队
+            //阻塞入队, 若回放的事件入队失败, 其序号一直未确认, checkpoint无法推进
+            boolean[] interrupted = new boolean[1];
+            journal.replay((event, sequence) -> {
+                if (interrupted[0]) {
+                    //未入队的事件仍未确认, 下次启动时回放
+                    return;
+                }
+                try {
+                    eventQueue.put(new JournaledEvent(sequence, event));
+                } catch (InterruptedException e) {
+                    interrupted[0] = true;
+                    log.warn("replay is interrupted, remaining events will be replayed next start");
+                }
+            });
+            if (interrupted[0]) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (optimized && eventQueue != null && THREADS_LIMIT > 1) {
+            scalingController = new ScalingController();
+            scalingController.start();
+        }
         super.serviceStart();
     }
 
     @Override
     public void serviceStop() {
+        if (scalingController != null) {
+            scalingController.stop();
+        }
+        if (orderedExecutor != null) {
+            orderedExecutor.shutdown();
+        }
         shutdownNEventHandlerThread(eventHandlerThreads.size());
         //用shutdownNow是为了强制中断阻塞在BlockingQueue.take()的线程
         pool.shutdownNow();
+        if (journal != null) {
+            //未处理的事件未确认, 下次启动时回放
+            try {
+                journal.close();
+            } catch (IOException e) {
+                ExceptionUtils.log(e);
+            }
+        }
 
         super.serviceStop();
     }
@@ -134,6 +509,8 @@ public class AsyncDispatcher extends AbstractService implements Dispatcher {
 
     void runNEventHandlerThread(int size) {
         synchronized (lock) {
+            //事件队列无界, 线程池只有核心线程, 需先调大核心线程数
+            pool.setCorePoolSize(Math.min(Math.max(pool.getCorePoolSize(), eventHandlerThreads.size() + size), THREADS_LIMIT));
             for (int i = 0; i < size; i++) {
                 EventHandlerThread thread = newThread();
                 eventHandlerThreads.add(thread);
@@ -144,28 +521,66 @@ public class AsyncDispatcher extends AbstractService implements Dispatcher {
 
     void shutdownNEventHandlerThread(int size) {
         synchronized (lock) {
-            for (int i = 0; i < size; i++) {
+            for (int i = 0; i < size && !eventHandlerThreads.isEmpty(); i++) {
                 eventHandlerThreads.remove(0).shutdown();
             }
+            if (!pool.isShutdown()) {
+                pool.setCorePoolSize(Math.max(eventHandlerThreads.size(), 1));
+            }
         }
     }
 
+    /**
+     * @return 自动扩缩容的监控指标, 未开启优化则返回null
+     */
+    public AsyncDispatcherMetricsMXBean getScalingMetrics() {
+        return scalingController;
+    }
+
     /**
      * 事件处理线程,主要逻辑是从事件队列获得事件并分派出去
      */
     private final class EventHandlerThread implements Runnable {
-        private boolean isStopped = false;
-        private Thread bindThread;
+        private volatile boolean isStopped = false;
+        private volatile Thread bindThread;
+        //已分发事件数, 用于抽样统计处理耗时
+        private int dispatched;
 
         @Override
         public void run() {
             this.bindThread = Thread.currentThread();
+            try {
+                if (ringBuffer != null) {
+                    runRingBuffer();
+                } else if (waitStrategy == null) {
+                    runBlocking();
+                } else {
+                    runWaitStrategy();
+                }
+            } finally {
+                //统一异常处理
+                synchronized (lock) {
+                    eventHandlerThreads.remove(this);
+                }
+            }
+        }
+
+        private void runBlocking() {
             while (!isStopped && !Thread.currentThread().isInterrupted()) {
                 Event event;
                 try {
                     event = eventQueue.take();
-                    if (event != null) {
-                        dispatch(event);
+                    if (event == null) {
+                        continue;
+                    }
+                    if (maxBatchSize > 1) {
+                        sampledDispatchBatch(collectBatch(event));
+                    } else {
+                        try {
+                            sampledDispatch(event);
+                        } finally {
+                            onQueuedDispatched(1);
+                        }
                     }
                 } catch (InterruptedException e) {
                     if (!isStopped) {
@@ -174,18 +589,145 @@ public class AsyncDispatcher extends AbstractService implements Dispatcher {
 
                     }
                     return;
-                } finally {
-                    //统一异常处理
-                    synchronized (lock) {
-                        eventHandlerThreads.remove(this);
+                }
+            }
+        }
+
+        private void runRingBuffer() {
+            Waiter waiter = new Waiter(() -> !ringBuffer.isEmpty());
+            waiter.bind();
+            waiters.add(waiter);
+            try {
+                int idleCount = 0;
+                while (!isStopped && !Thread.currentThread().isInterrupted()) {
+                    int drained;
+                    if (maxBatchSize > 1) {
+                        List<Event> batch = new ArrayList<>(Math.min(maxBatchSize, DRAIN_BATCH));
+                        drained = ringBuffer.drain(batch::add, maxBatchSize);
+                        if (drained > 0) {
+                            dispatchBatch(batch);
+                        }
+                    } else {
+                        drained = ringBuffer.drain(this::dispatchSafely, DRAIN_BATCH);
+                    }
+                    if (drained > 0) {
+                        idleCount = 0;
+                    } else {
+                        waitStrategy.await(waiter, idleCount++);
+                    }
+                }
+            } finally {
+                waiters.remove(waiter);
+            }
+        }
+
+        /**
+         * 批量消费时, 单个事件处理异常不影响同一批的其他事件
+         */
+        private void dispatchSafely(Event event) {
+            try {
+                dispatch(event);
+            } catch (Exception e) {
+                log.error("dispatch event '" + event + "' error", e);
+            }
+        }
+
+        /**
+         * 开启自动扩缩容时, 抽样统计事件处理耗时
+         */
+        private void sampledDispatch(Event event) {
+            ScalingController controller = scalingController;
+            if (controller == null || (++dispatched & (LATENCY_SAMPLE_INTERVAL - 1)) != 0) {
+                dispatch(event);
+                return;
+            }
+            long startNanos = System.nanoTime();
+            try {
+                dispatch(event);
+            } finally {
+                controller.handlerLatency.record(System.nanoTime() - startNanos);
+            }
+        }
+
+        /**
+         * 以@param first为首, 从队列取出最多maxBatchSize个事件, 不足则最多等待batchWaitNanos
+         * 等待期间被中断则直接返回已取出的事件, 由外层退出
+         */
+        private List<Event> collectBatch(Event first) {
+            List<Event> batch = new ArrayList<>(Math.min(maxBatchSize, DRAIN_BATCH));
+            batch.add(first);
+            eventQueue.drainTo(batch, maxBatchSize - 1);
+            if (batch.size() < maxBatchSize && batchWaitNanos > 0) {
+                long deadline = System.nanoTime() + batchWaitNanos;
+                long remaining;
+                while (batch.size() < maxBatchSize && (remaining = deadline - System.nanoTime()) > 0) {
+                    Event event;
+                    try {
+                        event = eventQueue.poll(remaining, TimeUnit.NANOSECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
                     }
+                    if (event == null) {
+                        break;
+                    }
+                    batch.add(event);
+                    eventQueue.drainTo(batch, maxBatchSize - batch.size());
+                }
+            }
+            return batch;
+        }
+
+        /**
+         * 开启自动扩缩容时, 以整批处理耗时的均值作为事件处理耗时
+         */
+        private void sampledDispatchBatch(List<Event> batch) {
+            ScalingController controller = scalingController;
+            long startNanos = controller != null ? System.nanoTime() : 0;
+            try {
+                dispatchBatch(batch);
+            } finally {
+                if (controller != null) {
+                    controller.handlerLatency.record((System.nanoTime() - startNanos) / batch.size());
                 }
+                onQueuedDispatched(batch.size());
+            }
+        }
+
+        private void runWaitStrategy() {
+            Waiter waiter = new Waiter(() -> !eventQueue.isEmpty());
+            waiter.bind();
+            waiters.add(waiter);
+            try {
+                int idleCount = 0;
+                while (!isStopped && !Thread.currentThread().isInterrupted()) {
+                    Event event = eventQueue.poll();
+                    if (event != null) {
+                        if (maxBatchSize > 1) {
+                            sampledDispatchBatch(collectBatch(event));
+                        } else {
+                            try {
+                                sampledDispatch(event);
+                            } finally {
+                                onQueuedDispatched(1);
+                            }
+                        }
+                        idleCount = 0;
+                    } else {
+                        waitStrategy.await(waiter, idleCount++);
+                    }
+                }
+            } finally {
+                waiters.remove(waiter);
             }
         }
 
         public void shutdown() {
             isStopped = true;
-            this.bindThread.interrupt();
+            Thread bindThread = this.bindThread;
+            if (bindThread != null) {
+                bindThread.interrupt();
+            }
         }
     }
 
@@ -204,57 +746,332 @@ public class AsyncDispatcher extends AbstractService implements Dispatcher {
 
     /**
      * 主要用于接受事件并放入事件队列,等待分发线程分派该事件
-     * 支持动态改变线程数来满足事件及时分派的场景
+     * 分发线程数由{@link ScalingController}在后台调整, 这里只需入队
      */
     class GenericEventHandler implements EventHandler<Event> {
 
         @Override
         public void handle(Event event) {
+            if (inline) {
+                if (tryDispatchInline(event)) {
+                    return;
+                }
+                pendingEvents.incrementAndGet();
+                queuedDispatchedCount.increment();
+            }
             try {
-                //用于统计并打印相关信息日志
-                int size = eventQueue.size();
-                if (size > 0 && size % 1000 == 0) {
-                    log.info("event-queue size = " + size);
+                eventQueue.put(journal != null ? new JournaledEvent(journal.append(event), event) : event);
+                if (waitStrategy != null) {
+                    signalWaiters();
                 }
-                int remCapacity = eventQueue.remainingCapacity();
-                if (remCapacity < 1000) {
-                    log.warn("Very low remaining capacity in the event-queue: " + remCapacity);
+            } catch (InterruptedException e) {
+                //未入队
+                onQueuedDispatched(1);
+                log.error("", e);
+            }
+        }
+    }
+
+    /**
+     * 已追加到事件日志的事件, 类型与其事件一致, 以便事件队列按类型处理(比如选择优先级通道)
+     */
+    @SuppressWarnings("unchecked")
+    private static final class JournaledEvent implements Event {
+        private final long sequence;
+        private final Event event;
+
+        private JournaledEvent(long sequence, Event event) {
+            this.sequence = sequence;
+            this.event = event;
+        }
+
+        @Override
+        public Enum getType() {
+            return event.getType();
+        }
+
+        @Override
+        public long getTimestamp() {
+            return event.getTimestamp();
+        }
+
+        @Override
+        public String toString() {
+            return event.toString();
+        }
+    }
+
+    /**
+     * 唤醒一条park的事件分发线程即可, 其余线程仍在自旋或处理事件
+     */
+    private void signalWaiters() {
+        for (Waiter waiter : waiters) {
+            if (waitStrategy.signal(waiter)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 环形缓冲区模式下将事件写入缓冲区
+     */
+    private class RingBufferEventHandler implements EventHandler<Event> {
+        @Override
+        public void handle(Event event) {
+            ringBuffer.put(event);
+            signalWaiters();
+        }
+    }
+
+    /**
+     * 定时采样积压事件数及事件处理耗时, 增减事件分发线程
+     * 连续多次采样过载才扩容, 连续多次采样空闲才缩容
+     */
+    private class ScalingController implements Runnable, AsyncDispatcherMetricsMXBean {
+        //事件处理耗时, 每个采样周期清空
+        private final LatencyHistogram handlerLatency = new LatencyHistogram();
+        private ScheduledFuture<?> future;
+        private ObjectName objectName;
+
+        //以下只由采样线程写
+        private int overloadedSamples;
+        private int idleSamples;
+        private volatile long queueDepth;
+        private volatile double latencyMeanNanos;
+        private volatile long backlogNanos;
+        private volatile long scaleUpCount;
+        private volatile long scaleDownCount;
+        private volatile String lastDecision = "NONE";
+        private volatile long lastDecisionTime;
+
+        private void start() {
+            future = ThreadManager.DEFAULT.scheduleAtFixedRate(this, SCALING_PERIOD_MS, SCALING_PERIOD_MS, TimeUnit.MILLISECONDS);
+            try {
+                objectName = new ObjectName("org.kin.framework.event:type=AsyncDispatcher,name=" + getName() + "-" + ID_GENERATOR.incrementAndGet());
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            } catch (JMException e) {
+                ExceptionUtils.log(e);
+                objectName = null;
+            }
+        }
+
+        private void stop() {
+            future.cancel(false);
+            if (objectName != null) {
+                try {
+                    ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+                } catch (JMException e) {
+                    ExceptionUtils.log(e);
                 }
-                //end
-
-                if (optimized) {
-                    //如果event-queue大小过大,多开线程进行处理
-                    if (size > 0) {
-                        int coreSize = pool.getCorePoolSize();
-                        //理想是每条线程处理1000个事件
-                        int expectedSize = size % 1000 == 0 ? (size / 1000) : (size / 1000 + 1);
-                        int finalSize;
-                        finalSize = expectedSize <= THREADS_LIMIT ? expectedSize : THREADS_LIMIT;
-                        pool.setCorePoolSize(finalSize);
-                        if (finalSize >= coreSize) {
-                            runNEventHandlerThread(finalSize - coreSize);
-                        } else {
-                            shutdownNEventHandlerThread(coreSize - finalSize);
-                        }
-                    }
-                    //end
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                sample();
+            } catch (Exception e) {
+                //不能抛出, 否则不再调度
+                ExceptionUtils.log(e);
+            }
+        }
+
+        private void sample() {
+            int threadNum = getEventHandlerThreadNum();
+            long depth = eventQueue.size();
+            double latency = handlerLatency.getCount() > 0 ? handlerLatency.getMean() : latencyMeanNanos;
+            handlerLatency.reset();
+            long backlog = (long) (depth * latency / Math.max(threadNum, 1));
+            queueDepth = depth;
+            latencyMeanNanos = latency;
+            backlogNanos = backlog;
+
+            if (eventQueue.remainingCapacity() < EVENTS_PER_THREAD) {
+                log.warn("Very low remaining capacity in the event-queue: " + eventQueue.remainingCapacity());
+            }
+
+            if (threadNum == 0) {
+                //分发线程因异常退出, 至少保留一条
+                scale(threadNum, 1, depth, backlog);
+                return;
+            }
+
+            if (backlog > SCALE_UP_BACKLOG_NANOS || depth > (long) threadNum * EVENTS_PER_THREAD) {
+                idleSamples = 0;
+                if (++overloadedSamples >= SCALE_UP_SAMPLES && threadNum < THREADS_LIMIT) {
+                    overloadedSamples = 0;
+                    //按耗时及积压事件数估算所需线程数, 每次最多翻倍
+                    long byLatency = (long) Math.ceil(depth * latency / SCALE_UP_BACKLOG_NANOS);
+                    long byDepth = (depth + EVENTS_PER_THREAD - 1) / EVENTS_PER_THREAD;
+                    long expected = Math.max(byLatency, byDepth);
+                    int target = (int) Math.min(Math.min(expected, (long) threadNum * 2), THREADS_LIMIT);
+                    scale(threadNum, Math.max(target, threadNum + 1), depth, backlog);
                 }
+            } else if (backlog < SCALE_DOWN_BACKLOG_NANOS && depth < threadNum) {
+                overloadedSamples = 0;
+                if (++idleSamples >= SCALE_DOWN_SAMPLES && threadNum > 1) {
+                    idleSamples = 0;
+                    //每次最多减半
+                    scale(threadNum, Math.max(threadNum / 2, 1), depth, backlog);
+                }
+            } else {
+                overloadedSamples = 0;
+                idleSamples = 0;
+            }
+        }
 
-                eventQueue.put(event);
-            } catch (InterruptedException e) {
-                log.error("", e);
+        private void scale(int threadNum, int target, long depth, long backlog) {
+            if (target > threadNum) {
+                runNEventHandlerThread(target - threadNum);
+                scaleUpCount++;
+            } else {
+                shutdownNEventHandlerThread(threadNum - target);
+                scaleDownCount++;
+            }
+            lastDecision = String.format("%s %d -> %d, queueDepth=%d, backlog=%dms",
+                    target > threadNum ? "UP" : "DOWN", threadNum, target, depth, TimeUnit.NANOSECONDS.toMillis(backlog));
+            lastDecisionTime = System.currentTimeMillis();
+            log.info("AsyncDispatcher scale " + lastDecision);
+        }
+
+        @Override
+        public int getEventHandlerThreadNum() {
+            synchronized (lock) {
+                return eventHandlerThreads.size();
             }
         }
+
+        @Override
+        public long getQueueDepth() {
+            return queueDepth;
+        }
+
+        @Override
+        public double getHandlerLatencyMeanMicros() {
+            return latencyMeanNanos / 1000;
+        }
+
+        @Override
+        public long getBacklogMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(backlogNanos);
+        }
+
+        @Override
+        public long getScaleUpCount() {
+            return scaleUpCount;
+        }
+
+        @Override
+        public long getScaleDownCount() {
+            return scaleDownCount;
+        }
+
+        @Override
+        public String getLastDecision() {
+            return lastDecision;
+        }
+
+        @Override
+        public long getLastDecisionTime() {
+            return lastDecisionTime;
+        }
+    }
+
+    /**
+     * 保序模式下将事件提交到保序key对应的分区
+     */
+    private class OrderedEventHandler implements EventHandler<Event> {
+        //不需保序的事件轮询分配分区
+        private final AtomicInteger roundRobin = new AtomicInteger();
+
+        @Override
+        public void handle(Event event) {
+            Object key = orderKeyMapper.apply(event);
+            if (key == null) {
+                key = roundRobin.getAndIncrement() & Integer.MAX_VALUE;
+            }
+            //分区线程会捕获并打印事件处理异常
+            orderedExecutor.post(key, () -> dispatch(event));
+        }
+    }
+
+    /**
+     * 不可变的事件分发表, 注册事件处理器时重建(copy-on-write)
+     * 以事件类型的identityHashCode开放寻址, 分发时只需几次数组访问, 不需加锁
+     */
+    private static final class DispatchTable {
+        private static final DispatchTable EMPTY = new DispatchTable(Collections.emptyMap());
+
+        private final Class<?>[] types;
+        //一个事件类型只有一个事件处理器时直接存储, 否则存储{@link MultiListenerHandler}
+        private final EventHandler[] handlers;
+        //该事件类型的所有事件处理器是否都支持内联分发
+        private final boolean[] inlineSafe;
+        private final int mask;
+
+        @SuppressWarnings("unchecked")
+        private DispatchTable(Map<Class<? extends Enum>, List<EventHandler>> registrations) {
+            //负载因子不超过0.5, 探测次数少
+            int capacity = 2;
+            while (capacity < registrations.size() * 2) {
+                capacity <<= 1;
+            }
+            this.types = new Class<?>[capacity];
+            this.handlers = new EventHandler[capacity];
+            this.inlineSafe = new boolean[capacity];
+            this.mask = capacity - 1;
+            for (Map.Entry<Class<? extends Enum>, List<EventHandler>> entry : registrations.entrySet()) {
+                int index = hash(entry.getKey()) & mask;
+                while (types[index] != null) {
+                    index = (index + 1) & mask;
+                }
+                List<EventHandler> registered = entry.getValue();
+                types[index] = entry.getKey();
+                handlers[index] = registered.size() == 1 ? registered.get(0) : new MultiListenerHandler(registered.toArray(new EventHandler[0]));
+                boolean allInlineSafe = true;
+                for (EventHandler handler : registered) {
+                    allInlineSafe &= handler instanceof InlineEventHandler;
+                }
+                inlineSafe[index] = allInlineSafe;
+            }
+        }
+
+        private static int hash(Class<?> type) {
+            int h = System.identityHashCode(type);
+            return h ^ (h >>> 16);
+        }
+
+        /**
+         * @return 事件类型所在下标, 没有注册则返回-1
+         */
+        private int indexOf(Class<?> type) {
+            int index = hash(type) & mask;
+            Class<?> t;
+            while ((t = types[index]) != null) {
+                if (t == type) {
+                    return index;
+                }
+                index = (index + 1) & mask;
+            }
+            return -1;
+        }
+
+        private EventHandler get(Class<?> type) {
+            int index = indexOf(type);
+            return index >= 0 ? handlers[index] : null;
+        }
     }
 
     /**
-     * 一事件对应多个事件处理器的场景
+     * 一事件对应多个事件处理器的场景, 不可变, 注册时随分发表重建
+     * 批量分发时, 整批交给支持批量处理的事件处理器, 其余事件处理器逐个处理
      */
-    class MultiListenerHandler implements EventHandler<Event> {
-        List<EventHandler<Event>> handlers;
+    @SuppressWarnings("unchecked")
+    static final class MultiListenerHandler implements BatchEventHandler<Event> {
+        private final EventHandler<Event>[] handlers;
 
-        public MultiListenerHandler() {
-            this.handlers = new LinkedList<>();
+        MultiListenerHandler(EventHandler<Event>[] handlers) {
+            this.handlers = handlers;
         }
 
         @Override
@@ -264,8 +1081,17 @@ public class AsyncDispatcher extends AbstractService implements Dispatcher {
             }
         }
 
-        void addHandler(EventHandler<Event> handler) {
-            handlers.add(handler);
+        @Override
+        public void handleBatch(List<Event> events) {
+            for (EventHandler<Event> handler : handlers) {
+                if (handler instanceof BatchEventHandler) {
+                    ((BatchEventHandler<Event>) handler).handleBatch(events);
+                } else {
+                    for (Event event : events) {
+                        handler.handle(event);
+                    }
+                }
+            }
         }
     }
 }
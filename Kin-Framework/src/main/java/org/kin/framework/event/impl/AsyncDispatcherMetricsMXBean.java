@@ -0,0 +1,41 @@
+package org.kin.framework.event.impl;
+
+/**
+ * Created by huangjianqin on 2018/11/30.
+ * AsyncDispatcher事件分发线程自动扩缩容的JMX监控指标
+ */
+public interface AsyncDispatcherMetricsMXBean {
+    /**
+     * 当前事件分发线程数
+     */
+    int getEventHandlerThreadNum();
+
+    /**
+     * 最近一次采样的积压事件数
+     */
+    long getQueueDepth();
+
+    /**
+     * 最近一次采样周期内事件处理平均耗时(抽样统计), 微秒
+     */
+    double getHandlerLatencyMeanMicros();
+
+    /**
+     * 最近一次采样估算的积压事件处理完所需时间, 毫秒
+     */
+    long getBacklogMillis();
+
+    long getScaleUpCount();
+
+    long getScaleDownCount();
+
+    /**
+     * 最近一次扩缩容决策描述
+     */
+    String getLastDecision();
+
+    /**
+     * 最近一次扩缩容决策的时间戳, 毫秒
+     */
+    long getLastDecisionTime();
+}
@@ -0,0 +1,324 @@
+package org.kin.framework.event.impl;
+
+import com.google.common.base.Preconditions;
+import org.kin.framework.event.CoalescingEvent;
+import org.kin.framework.event.Event;
+
+import javax.annotation.Nonnull;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Created by huangjianqin on 2018/12/6.
+ * 合并事件的事件队列装饰器
+ * {@link CoalescingEvent}入队时, 若同一类型同一key的事件仍在排队未处理, 则直接替换其内容, 保留其排队位置
+ * 因此积压事件数只与不同key的数量有关, 与事件提交数量无关
+ * <p>
+ * 底层队列可以是任意BlockingQueue, 比如{@link PriorityEventQueue}, 合并后的事件仍按其类型选择通道
+ */
+public class CoalescingEventQueue extends AbstractQueue<Event> implements BlockingQueue<Event> {
+    private final BlockingQueue<Event> delegate;
+    //排队中的可合并事件
+    private final Map<CoalescingKey, Slot> pending = new ConcurrentHashMap<>();
+    //被合并(丢弃)的事件数
+    private final LongAdder coalescedCount = new LongAdder();
+
+    public CoalescingEventQueue() {
+        this(new LinkedBlockingQueue<>());
+    }
+
+    public CoalescingEventQueue(BlockingQueue<Event> delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * @return 合并key, null则不需合并
+     */
+    private CoalescingKey keyOf(Event event) {
+        if (!(event instanceof CoalescingEvent)) {
+            return null;
+        }
+        Object key = ((CoalescingEvent) event).getCoalescingKey();
+        if (key == null) {
+            return null;
+        }
+        return new CoalescingKey(event.getType().getDeclaringClass(), key);
+    }
+
+    /**
+     * 用于阻塞入队, 新slot在锁外入队, 失败时需调用{@link #abandon(Slot, Event)}
+     *
+     * @return 需要入队的新slot, null则已合并到排队中的slot或不需合并
+     */
+    private Event coalesce(Event event) {
+        CoalescingKey coalescingKey = keyOf(event);
+        if (coalescingKey == null) {
+            return event;
+        }
+        Slot[] created = new Slot[1];
+        //与出队时的remove互斥, 保证替换的事件一定会被分发
+        pending.compute(coalescingKey, (k, slot) -> {
+            if (slot == null) {
+                created[0] = new Slot(k, event);
+                return created[0];
+            }
+            slot.event = event;
+            coalescedCount.increment();
+            return slot;
+        });
+        return created[0];
+    }
+
+    /**
+     * 出队后取出slot中最新的事件
+     */
+    private Event unwrap(Event event) {
+        if (!(event instanceof Slot)) {
+            return event;
+        }
+        Slot slot = (Slot) event;
+        //移除后, 新的同key事件会重新入队
+        pending.remove(slot.key, slot);
+        return slot.event;
+    }
+
+    /**
+     * 阻塞入队的新slot入队失败时调用, 与合并互斥
+     * 期间若已有其他生产者合并到该slot, 其已被告知成功, 不能放弃该slot, 由当前线程不可中断地补投
+     * 此时当前事件已被替换, 视为合并成功
+     *
+     * @return 是否已补投
+     */
+    private boolean abandon(Slot slot, Event original) {
+        boolean[] replaced = new boolean[1];
+        pending.computeIfPresent(slot.key, (k, nowSlot) -> {
+            if (nowSlot != slot) {
+                return nowSlot;
+            }
+            if (nowSlot.event != original) {
+                replaced[0] = true;
+                return nowSlot;
+            }
+            return null;
+        });
+        if (!replaced[0]) {
+            return false;
+        }
+        boolean interrupted = false;
+        for (; ; ) {
+            try {
+                delegate.put(slot);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return true;
+    }
+
+    @Override
+    public boolean offer(@Nonnull Event event) {
+        CoalescingKey coalescingKey = keyOf(event);
+        if (coalescingKey == null) {
+            return delegate.offer(event);
+        }
+        boolean[] success = {true};
+        //不阻塞, 新slot在锁内入队, 入队成功才对其他生产者可见, 避免其他生产者合并到入队失败的slot
+        pending.compute(coalescingKey, (k, slot) -> {
+            if (slot != null) {
+                slot.event = event;
+                coalescedCount.increment();
+                return slot;
+            }
+            Slot created = new Slot(k, event);
+            if (delegate.offer(created)) {
+                return created;
+            }
+            success[0] = false;
+            return null;
+        });
+        return success[0];
+    }
+
+    @Override
+    public void put(@Nonnull Event event) throws InterruptedException {
+        Event toEnqueue = coalesce(event);
+        if (toEnqueue == null) {
+            return;
+        }
+        try {
+            delegate.put(toEnqueue);
+        } catch (InterruptedException e) {
+            if (!(toEnqueue instanceof Slot) || !abandon((Slot) toEnqueue, event)) {
+                throw e;
+            }
+            //已补投, 保留中断标识
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public boolean offer(Event event, long timeout, @Nonnull TimeUnit unit) throws InterruptedException {
+        Event toEnqueue = coalesce(event);
+        if (toEnqueue == null) {
+            return true;
+        }
+        try {
+            if (delegate.offer(toEnqueue, timeout, unit)) {
+                return true;
+            }
+        } catch (InterruptedException e) {
+            if (!(toEnqueue instanceof Slot) || !abandon((Slot) toEnqueue, event)) {
+                throw e;
+            }
+            Thread.currentThread().interrupt();
+            return true;
+        }
+        return toEnqueue instanceof Slot && abandon((Slot) toEnqueue, event);
+    }
+
+    @Override
+    public Event poll() {
+        return unwrap(delegate.poll());
+    }
+
+    @Nonnull
+    @Override
+    public Event take() throws InterruptedException {
+        return unwrap(delegate.take());
+    }
+
+    @Override
+    public Event poll(long timeout, @Nonnull TimeUnit unit) throws InterruptedException {
+        return unwrap(delegate.poll(timeout, unit));
+    }
+
+    @Override
+    public Event peek() {
+        Event event = delegate.peek();
+        return event instanceof Slot ? ((Slot) event).event : event;
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return delegate.remainingCapacity();
+    }
+
+    @Override
+    public int drainTo(@Nonnull Collection<? super Event> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(@Nonnull Collection<? super Event> c, int maxElements) {
+        Preconditions.checkArgument(c != this, "can't drain to self");
+        List<Event> drained = new ArrayList<>(Math.min(Math.max(maxElements, 0), delegate.size()));
+        int n = delegate.drainTo(drained, maxElements);
+        for (Event event : drained) {
+            c.add(unwrap(event));
+        }
+        return n;
+    }
+
+    /**
+     * 即不同key的可合并事件数加上其余事件数
+     */
+    @Override
+    public int size() {
+        return delegate.size();
+    }
+
+    /**
+     * 弱一致的视图, 不支持remove
+     */
+    @Nonnull
+    @Override
+    public Iterator<Event> iterator() {
+        Iterator<Event> iterator = delegate.iterator();
+        return new Iterator<Event>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public Event next() {
+                Event event = iterator.next();
+                return event instanceof Slot ? ((Slot) event).event : event;
+            }
+        };
+    }
+
+    //getter
+    public long getCoalescedCount() {
+        return coalescedCount.sum();
+    }
+
+    //-----------------------------------------------------------------------------------------------------------
+
+    /**
+     * 事件类型 + 合并key
+     */
+    private static final class CoalescingKey {
+        private final Class<? extends Enum> type;
+        private final Object key;
+
+        private CoalescingKey(Class<? extends Enum> type, Object key) {
+            this.type = type;
+            this.key = key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            CoalescingKey that = (CoalescingKey) o;
+            return type == that.type && key.equals(that.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * type.hashCode() + key.hashCode();
+        }
+    }
+
+    /**
+     * 队列中可合并事件的占位, 类型与其事件一致, 以便底层队列按类型处理(比如选择优先级通道)
+     */
+    @SuppressWarnings("unchecked")
+    private static final class Slot implements Event {
+        private final CoalescingKey key;
+        private volatile Event event;
+
+        private Slot(CoalescingKey key, Event event) {
+            this.key = key;
+            this.event = event;
+        }
+
+        @Override
+        public Enum getType() {
+            return event.getType();
+        }
+
+        @Override
+        public long getTimestamp() {
+            return event.getTimestamp();
+        }
+
+        @Override
+        public String toString() {
+            return "Slot{" + event + "}";
+        }
+    }
+}
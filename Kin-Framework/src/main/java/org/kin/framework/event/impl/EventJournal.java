@@ -0,0 +1,512 @@
+package org.kin.framework.event.impl;
+
+import com.google.common.base.Preconditions;
+import org.kin.framework.event.Event;
+import org.kin.framework.utils.ExceptionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ObjLongConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * Created by huangjianqin on 2018/12/7.
+ * 基于内存映射文件的追加写事件日志, 用于AsyncDispatcher崩溃恢复
+ * 事件入队前先追加到日志, 处理完后确认(ack), 后台线程定期把已确认的最大连续序号写入checkpoint文件, 并删除已全部确认的segment
+ * 重启时回放checkpoint之后未确认的事件
+ * <p>
+ * 日志按segment滚动, 文件名为该segment首个事件的序号
+ * 记录格式: [payload长度(int)][序号(long)][payload crc32(int)][payload], 长度最后写入, 未写完或crc不符的记录视为无效
+ * <p>
+ * 刷盘策略见{@link FlushPolicy}, 进程崩溃时已写入内存映射区的数据仍会由操作系统落盘, 刷盘只影响机器宕机时的数据丢失
+ */
+public class EventJournal implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(EventJournal.class);
+    private static final int HEADER_SIZE = 16;
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final long DEFAULT_FLUSH_INTERVAL_MS = 10;
+    private static final long CHECKPOINT_INTERVAL_MS = 1000;
+
+    /**
+     * 刷盘策略
+     */
+    public enum FlushPolicy {
+        /**
+         * 每条事件追加后立即刷盘, 最可靠也最慢
+         */
+        SYNC,
+        /**
+         * 组提交, 追加线程等待后台线程刷盘, 一次刷盘覆盖等待期间所有追加的事件
+         */
+        GROUP_COMMIT,
+        /**
+         * 后台线程定时刷盘, 追加线程不等待, 宕机时可能丢失最近一个刷盘周期的事件
+         */
+        ASYNC,
+    }
+
+    /**
+     * 事件序列化
+     */
+    public interface Serializer {
+        byte[] serialize(Event event);
+
+        Event deserialize(byte[] bytes);
+    }
+
+    private final File dir;
+    private final int segmentSize;
+    private final FlushPolicy flushPolicy;
+    private final long flushIntervalMs;
+    private final Serializer serializer;
+    private final File checkpointFile;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    //有新事件待刷盘
+    private final Condition dirty = lock.newCondition();
+    //刷盘完成
+    private final Condition flushed = lock.newCondition();
+    //所有segment, 最后一个为当前写入的segment
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private Segment current;
+    private long nextSequence;
+    private long writtenSequence;
+    private long flushedSequence;
+    private volatile boolean closed;
+    //已追加但未确认的事件序号
+    private final ConcurrentSkipListSet<Long> unacked = new ConcurrentSkipListSet<>();
+    private volatile long checkpoint;
+    //重启时恢复的未确认事件
+    private SortedMap<Long, Event> recovered = new TreeMap<>();
+    private final Thread flusher;
+
+    public EventJournal(File dir) throws IOException {
+        this(dir, FlushPolicy.GROUP_COMMIT);
+    }
+
+    public EventJournal(File dir, FlushPolicy flushPolicy) throws IOException {
+        this(dir, DEFAULT_SEGMENT_SIZE, flushPolicy, DEFAULT_FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS, new JdkSerializer());
+    }
+
+    /**
+     * @param flushInterval ASYNC策略下的刷盘周期
+     * @param serializer    事件序列化, 默认使用jdk序列化, 此时事件需实现{@link Serializable}
+     */
+    public EventJournal(File dir, int segmentSize, FlushPolicy flushPolicy, long flushInterval, TimeUnit unit, Serializer serializer) throws IOException {
+        Preconditions.checkArgument(segmentSize > HEADER_SIZE, "segmentSize is too small");
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("can't create journal dir " + dir);
+        }
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.flushPolicy = flushPolicy;
+        this.flushIntervalMs = Math.max(unit.toMillis(flushInterval), 1);
+        this.serializer = serializer;
+        this.checkpointFile = new File(dir, CHECKPOINT_FILE);
+
+        recover();
+        current = new Segment(new File(dir, segmentName(nextSequence)), nextSequence, segmentSize);
+        segments.addLast(current);
+
+        flusher = new Thread(this::flushLoop, "EventJournal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    private static String segmentName(long firstSequence) {
+        return String.format("%020d%s", firstSequence, SEGMENT_SUFFIX);
+    }
+
+    /**
+     * 读取checkpoint, 扫描所有segment, 恢复checkpoint之后的事件
+     */
+    private void recover() throws IOException {
+        if (checkpointFile.exists()) {
+            try (DataInputStream dis = new DataInputStream(new FileInputStream(checkpointFile))) {
+                checkpoint = dis.readLong();
+            } catch (EOFException e) {
+                checkpoint = 0;
+            }
+        }
+        long maxSequence = checkpoint;
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SEGMENT_SUFFIX));
+        if (files != null) {
+            Arrays.sort(files, Comparator.comparing(File::getName));
+            for (File file : files) {
+                long firstSequence = Long.parseLong(file.getName().substring(0, file.getName().length() - SEGMENT_SUFFIX.length()));
+                long lastSequence = scan(file);
+                if (lastSequence < firstSequence) {
+                    //空segment
+                    if (!file.delete()) {
+                        log.warn("delete empty event journal segment '{}' fail", file);
+                    }
+                    continue;
+                }
+                segments.addLast(new Segment(file, lastSequence));
+                maxSequence = Math.max(maxSequence, lastSequence);
+            }
+        }
+        unacked.addAll(recovered.keySet());
+        nextSequence = maxSequence + 1;
+        writtenSequence = maxSequence;
+        flushedSequence = maxSequence;
+        if (!recovered.isEmpty()) {
+            log.info("event journal '{}' recovered {} unacknowledged events after checkpoint {}", dir, recovered.size(), checkpoint);
+        }
+    }
+
+    /**
+     * @return segment中最后一条有效记录的序号, 没有则返回-1
+     */
+    private long scan(File file) throws IOException {
+        long lastSequence = -1;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int pos = 0;
+            while (pos + HEADER_SIZE <= buffer.limit()) {
+                int length = buffer.getInt(pos);
+                if (length <= 0 || pos + HEADER_SIZE + length > buffer.limit()) {
+                    break;
+                }
+                long sequence = buffer.getLong(pos + 4);
+                int crc = buffer.getInt(pos + 12);
+                byte[] payload = new byte[length];
+                ByteBuffer duplicate = buffer.duplicate();
+                duplicate.position(pos + HEADER_SIZE);
+                duplicate.get(payload);
+                if (crc(payload) != crc) {
+                    //写了一半的记录
+                    log.warn("event journal segment '{}' has a torn record at {}, ignore the rest", file, pos);
+                    break;
+                }
+                lastSequence = sequence;
+                if (sequence > checkpoint) {
+                    try {
+                        recovered.put(sequence, serializer.deserialize(payload));
+                    } catch (Exception e) {
+                        log.error("deserialize event " + sequence + " from journal error, skip it", e);
+                    }
+                }
+                pos += HEADER_SIZE + length;
+            }
+        }
+        return lastSequence;
+    }
+
+    private static int crc(byte[] payload) {
+        CRC32 crc32 = new CRC32();
+        crc32.update(payload, 0, payload.length);
+        return (int) crc32.getValue();
+    }
+
+    /**
+     * 按序号顺序回放重启前未确认的事件, 回放的事件同样需要{@link #ack(long)}
+     * 只能回放一次
+     */
+    public void replay(ObjLongConsumer<Event> consumer) {
+        SortedMap<Long, Event> toReplay;
+        lock.lock();
+        try {
+            toReplay = recovered;
+            recovered = Collections.emptySortedMap();
+        } finally {
+            lock.unlock();
+        }
+        for (Map.Entry<Long, Event> entry : toReplay.entrySet()) {
+            consumer.accept(entry.getValue(), entry.getKey());
+        }
+    }
+
+    /**
+     * 追加事件, 按刷盘策略返回
+     *
+     * @return 事件序号, 处理完后需{@link #ack(long)}
+     */
+    public long append(Event event) {
+        byte[] payload = serializer.serialize(event);
+        Preconditions.checkArgument(HEADER_SIZE + payload.length <= segmentSize, "event is too large for journal segment: " + payload.length);
+        int crc = crc(payload);
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("event journal is closed");
+            }
+            if (current.buffer.remaining() < HEADER_SIZE + payload.length) {
+                roll();
+            }
+            long sequence = nextSequence++;
+            current.write(sequence, crc, payload);
+            unacked.add(sequence);
+            writtenSequence = sequence;
+            switch (flushPolicy) {
+                case SYNC:
+                    current.buffer.force();
+                    flushedSequence = sequence;
+                    break;
+                case GROUP_COMMIT:
+                    dirty.signal();
+                    while (flushedSequence < sequence && !closed) {
+                        flushed.awaitUninterruptibly();
+                    }
+                    break;
+                default:
+                    break;
+            }
+            return sequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 确认事件已处理, 重启后不再回放
+     */
+    public void ack(long sequence) {
+        unacked.remove(sequence);
+    }
+
+    /**
+     * 需持有锁, 当前segment刷盘后创建新segment
+     */
+    private void roll() {
+        current.buffer.force();
+        flushedSequence = writtenSequence;
+        flushed.signalAll();
+        try {
+            current = new Segment(new File(dir, segmentName(nextSequence)), nextSequence, segmentSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        segments.addLast(current);
+    }
+
+    private void flushLoop() {
+        long lastCheckpointTime = System.currentTimeMillis();
+        while (!closed) {
+            try {
+                Segment toFlush = null;
+                long target = 0;
+                lock.lock();
+                try {
+                    if (flushPolicy == FlushPolicy.GROUP_COMMIT) {
+                        if (writtenSequence == flushedSequence) {
+                            dirty.await(CHECKPOINT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                        }
+                    } else {
+                        dirty.await(flushPolicy == FlushPolicy.ASYNC ? flushIntervalMs : CHECKPOINT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                    }
+                    if (writtenSequence > flushedSequence) {
+                        toFlush = current;
+                        target = writtenSequence;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+
+                if (toFlush != null) {
+                    //刷盘时不持有锁, 其余线程可继续追加, 下一次刷盘一并落盘
+                    toFlush.buffer.force();
+                    lock.lock();
+                    try {
+                        flushedSequence = Math.max(flushedSequence, target);
+                        flushed.signalAll();
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+
+                long now = System.currentTimeMillis();
+                if (now - lastCheckpointTime >= CHECKPOINT_INTERVAL_MS) {
+                    lastCheckpointTime = now;
+                    checkpoint();
+                }
+            } catch (InterruptedException e) {
+                //close时中断
+            } catch (Exception e) {
+                ExceptionUtils.log(e);
+            }
+        }
+    }
+
+    /**
+     * 写入已确认的最大连续序号, 并删除全部已确认的segment
+     */
+    private void checkpoint() throws IOException {
+        long newCheckpoint;
+        List<Segment> toDelete = new ArrayList<>();
+        lock.lock();
+        try {
+            //追加时先加入unacked, 因此在锁内计算不会越过未确认的事件
+            //ack()不持锁, isEmpty()与first()之间可能被清空, ceiling()为空时返回null
+            Long firstUnacked = unacked.ceiling(Long.MIN_VALUE);
+            newCheckpoint = firstUnacked != null ? firstUnacked - 1 : writtenSequence;
+            //checkpoint之前的事件需已刷盘
+            newCheckpoint = Math.min(newCheckpoint, flushedSequence);
+            if (newCheckpoint <= checkpoint) {
+                return;
+            }
+            Iterator<Segment> iterator = segments.iterator();
+            while (iterator.hasNext()) {
+                Segment segment = iterator.next();
+                if (segment == current || segment.lastSequence > newCheckpoint) {
+                    break;
+                }
+                iterator.remove();
+                toDelete.add(segment);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        //先持久化checkpoint再删除segment
+        try (RandomAccessFile raf = new RandomAccessFile(checkpointFile, "rwd")) {
+            raf.seek(0);
+            raf.writeLong(newCheckpoint);
+        }
+        checkpoint = newCheckpoint;
+        for (Segment segment : toDelete) {
+            segment.close();
+            if (!segment.file.delete()) {
+                log.warn("delete event journal segment '{}' fail", segment.file);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            dirty.signalAll();
+            flushed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        flusher.interrupt();
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        current.buffer.force();
+        lock.lock();
+        try {
+            flushedSequence = writtenSequence;
+        } finally {
+            lock.unlock();
+        }
+        checkpoint();
+        for (Segment segment : segments) {
+            segment.close();
+        }
+    }
+
+    //getter
+    public long getCheckpoint() {
+        return checkpoint;
+    }
+
+    /**
+     * @return 已追加但未确认的事件数
+     */
+    public int getUnackedNum() {
+        return unacked.size();
+    }
+
+    public FlushPolicy getFlushPolicy() {
+        return flushPolicy;
+    }
+
+    //-----------------------------------------------------------------------------------------------------------
+
+    /**
+     * 日志文件段
+     */
+    private static final class Segment {
+        private final File file;
+        private final FileChannel channel;
+        //只读恢复的segment为null
+        private final MappedByteBuffer buffer;
+        //segment中最后一条记录的序号, 只在持有锁时修改
+        private long lastSequence;
+
+        /**
+         * 新建segment
+         */
+        private Segment(File file, long firstSequence, int size) throws IOException {
+            this.file = file;
+            this.channel = new RandomAccessFile(file, "rw").getChannel();
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            this.lastSequence = firstSequence - 1;
+        }
+
+        /**
+         * 重启时恢复的segment, 不再写入
+         */
+        private Segment(File file, long lastSequence) {
+            this.file = file;
+            this.channel = null;
+            this.buffer = null;
+            this.lastSequence = lastSequence;
+        }
+
+        private void write(long sequence, int crc, byte[] payload) {
+            int pos = buffer.position();
+            buffer.position(pos + 4);
+            buffer.putLong(sequence);
+            buffer.putInt(crc);
+            buffer.put(payload);
+            //长度最后写入, 崩溃时未写完的记录长度为0
+            buffer.putInt(pos, payload.length);
+            lastSequence = sequence;
+        }
+
+        private void close() throws IOException {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * jdk序列化, 事件需实现{@link Serializable}
+     */
+    public static class JdkSerializer implements Serializer {
+        @Override
+        public byte[] serialize(Event event) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(256);
+            try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+                oos.writeObject(event);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return baos.toByteArray();
+        }
+
+        @Override
+        public Event deserialize(byte[] bytes) {
+            try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                return (Event) ois.readObject();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (ClassNotFoundException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,355 @@
+package org.kin.framework.event.impl;
+
+import com.google.common.base.Preconditions;
+import org.kin.framework.event.Event;
+
+import javax.annotation.Nonnull;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Created by huangjianqin on 2018/12/5.
+ * 多优先级通道的事件队列, 按事件类型(enum)选择通道, 通道0优先级最高, 同一通道内FIFO
+ * 作为{@link AsyncDispatcher}的事件队列, 使控制类事件(关闭, 状态切换)不必排在大量数据事件之后
+ * <p>
+ * 两种调度方式:
+ * 严格优先级: 总是先取优先级最高的非空通道, 某通道连续被跳过starvationThreshold次后优先取该通道, 避免饿死
+ * 加权轮询: 非空通道按权重平滑轮询(smooth weighted round-robin), 本身不会饿死
+ */
+public class PriorityEventQueue extends AbstractQueue<Event> implements BlockingQueue<Event> {
+    private final ArrayDeque<Event>[] lanes;
+    //加权轮询时各通道权重, null则为严格优先级
+    private final int[] weights;
+    //加权轮询时各通道的当前权重
+    private final int[] currentWeights;
+    //严格优先级时, 通道连续被跳过多少次后优先调度, <=0则不做饥饿保护
+    private final int starvationThreshold;
+    //严格优先级时, 各通道非空但连续被跳过的次数
+    private final int[] skipped;
+    //各通道累计出队事件数
+    private final long[] dequeuedCounts;
+    //严格优先级时, 各通道因饥饿保护而被调度的次数
+    private final long[] starvationServedCounts;
+    //事件类型 -> 通道
+    private final Map<Class<? extends Enum>, Integer> type2Lane = new ConcurrentHashMap<>();
+    //未指定通道的事件类型所在通道
+    private volatile int defaultLane;
+    private int count;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+
+    /**
+     * 严格优先级
+     *
+     * @param starvationThreshold 通道连续被跳过多少次后优先调度, <=0则不做饥饿保护
+     */
+    public PriorityEventQueue(int laneNum, int starvationThreshold) {
+        this(laneNum, null, starvationThreshold);
+    }
+
+    /**
+     * 加权轮询
+     *
+     * @param weights 各通道权重, 需大于0
+     */
+    public PriorityEventQueue(int[] weights) {
+        this(weights.length, weights.clone(), 0);
+        for (int weight : weights) {
+            Preconditions.checkArgument(weight > 0, "lane weight must be greater than 0");
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private PriorityEventQueue(int laneNum, int[] weights, int starvationThreshold) {
+        Preconditions.checkArgument(laneNum > 0, "laneNum must be greater than 0");
+        this.lanes = new ArrayDeque[laneNum];
+        for (int i = 0; i < laneNum; i++) {
+            lanes[i] = new ArrayDeque<>();
+        }
+        this.weights = weights;
+        this.currentWeights = new int[laneNum];
+        this.starvationThreshold = starvationThreshold;
+        this.skipped = new int[laneNum];
+        this.dequeuedCounts = new long[laneNum];
+        this.starvationServedCounts = new long[laneNum];
+        //默认最低优先级, 只需为少量控制类事件指定高优先级通道
+        this.defaultLane = laneNum - 1;
+    }
+
+    /**
+     * 指定事件类型所在通道
+     */
+    public PriorityEventQueue setLane(Class<? extends Enum> eventType, int lane) {
+        checkLane(lane);
+        type2Lane.put(eventType, lane);
+        return this;
+    }
+
+    /**
+     * 指定未设置通道的事件类型所在通道
+     */
+    public PriorityEventQueue setDefaultLane(int lane) {
+        checkLane(lane);
+        this.defaultLane = lane;
+        return this;
+    }
+
+    private void checkLane(int lane) {
+        Preconditions.checkArgument(lane >= 0 && lane < lanes.length, "lane must be in [0, " + lanes.length + ")");
+    }
+
+    private int laneOf(Event event) {
+        Integer lane = type2Lane.get(event.getType().getDeclaringClass());
+        return lane != null ? lane : defaultLane;
+    }
+
+    /**
+     * 选择本次出队的通道, 需持有锁且队列非空
+     */
+    private int selectLane() {
+        if (weights != null) {
+            //smooth weighted round-robin, 只在非空通道间轮询
+            int selected = -1;
+            int totalWeight = 0;
+            for (int i = 0; i < lanes.length; i++) {
+                if (lanes[i].isEmpty()) {
+                    currentWeights[i] = 0;
+                    continue;
+                }
+                currentWeights[i] += weights[i];
+                totalWeight += weights[i];
+                if (selected < 0 || currentWeights[i] > currentWeights[selected]) {
+                    selected = i;
+                }
+            }
+            currentWeights[selected] -= totalWeight;
+            return selected;
+        }
+
+        int selected = -1;
+        for (int i = 0; i < lanes.length; i++) {
+            if (!lanes[i].isEmpty()) {
+                selected = i;
+                break;
+            }
+        }
+        if (starvationThreshold > 0) {
+            for (int i = selected + 1; i < lanes.length; i++) {
+                if (skipped[i] >= starvationThreshold && !lanes[i].isEmpty()) {
+                    selected = i;
+                    starvationServedCounts[i]++;
+                    break;
+                }
+            }
+            for (int i = 0; i < lanes.length; i++) {
+                if (i == selected || lanes[i].isEmpty()) {
+                    skipped[i] = 0;
+                } else {
+                    skipped[i]++;
+                }
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * 需持有锁且队列非空
+     */
+    private Event dequeue() {
+        int lane = selectLane();
+        Event event = lanes[lane].poll();
+        dequeuedCounts[lane]++;
+        count--;
+        return event;
+    }
+
+    @Override
+    public boolean offer(@Nonnull Event event) {
+        int lane = laneOf(event);
+        lock.lock();
+        try {
+            lanes[lane].offer(event);
+            count++;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+        return true;
+    }
+
+    @Override
+    public void put(@Nonnull Event event) {
+        offer(event);
+    }
+
+    @Override
+    public boolean offer(Event event, long timeout, @Nonnull TimeUnit unit) {
+        //无界
+        return offer(event);
+    }
+
+    @Override
+    public Event poll() {
+        lock.lock();
+        try {
+            return count > 0 ? dequeue() : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Nonnull
+    @Override
+    public Event take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                notEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Event poll(long timeout, @Nonnull TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 只返回下次出队时优先级最高的事件, 未计入饥饿保护及加权轮询
+     */
+    @Override
+    public Event peek() {
+        lock.lock();
+        try {
+            for (ArrayDeque<Event> lane : lanes) {
+                if (!lane.isEmpty()) {
+                    return lane.peek();
+                }
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public int drainTo(@Nonnull Collection<? super Event> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 按调度方式依次出队, 批量取出的事件仍遵循通道优先级
+     */
+    @Override
+    public int drainTo(@Nonnull Collection<? super Event> c, int maxElements) {
+        Preconditions.checkArgument(c != this, "can't drain to self");
+        lock.lock();
+        try {
+            int n = Math.min(maxElements, count);
+            for (int i = 0; i < n; i++) {
+                c.add(dequeue());
+            }
+            return Math.max(n, 0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 快照, 按通道优先级排列, 不支持remove
+     */
+    @Nonnull
+    @Override
+    public Iterator<Event> iterator() {
+        lock.lock();
+        try {
+            List<Event> snapshot = new ArrayList<>(count);
+            for (ArrayDeque<Event> lane : lanes) {
+                snapshot.addAll(lane);
+            }
+            return Collections.unmodifiableList(snapshot).iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //getter
+    public int getLaneNum() {
+        return lanes.length;
+    }
+
+    /**
+     * @return 各通道积压事件数
+     */
+    public int[] getLaneDepths() {
+        lock.lock();
+        try {
+            int[] depths = new int[lanes.length];
+            for (int i = 0; i < lanes.length; i++) {
+                depths[i] = lanes[i].size();
+            }
+            return depths;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return 各通道累计出队事件数
+     */
+    public long[] getLaneDequeuedCounts() {
+        lock.lock();
+        try {
+            return dequeuedCounts.clone();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return 严格优先级时, 各通道因饥饿保护而被调度的次数
+     */
+    public long[] getLaneStarvationServedCounts() {
+        lock.lock();
+        try {
+            return starvationServedCounts.clone();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -5,4 +5,5 @@ package org.kin.framework.utils;
  */
 public class Constants {
     public static final String DEFAULT_EXECUTOR = "org.kin.concurrent.defaultExecutor";
+    public static final String DEFAULT_SCHEDULER = "org.kin.concurrent.defaultScheduler";
 }
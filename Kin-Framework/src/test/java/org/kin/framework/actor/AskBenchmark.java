@@ -0,0 +1,86 @@
+package org.kin.framework.actor;
+
+import org.kin.framework.actor.domain.ActorPath;
+import org.kin.framework.actor.impl.AbstractActor;
+import org.kin.framework.actor.impl.ActorSystem;
+import org.kin.framework.actor.impl.ReceiveBuilder;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Created by huangjianqin on 2018/12/11.
+ * 大量未完成的ask请求, 一半由actor回复(同步/异步), 另一半不回复等待超时, 统计耗时及完成情况
+ */
+public class AskBenchmark {
+    private static final int ASK_NUM = 200_000;
+    private static final long TIMEOUT_MS = 500;
+    //异步回复线程
+    private static final ExecutorService REPLY_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    public static void main(String[] args) throws InterruptedException {
+        ActorSystem actorSystem = ActorSystem.create("ask-benchmark");
+        EchoActor echoActor = actorSystem.actorOf(EchoActor.class, "echo");
+
+        AtomicInteger replied = new AtomicInteger();
+        AtomicInteger timeout = new AtomicInteger();
+        AtomicInteger error = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(ASK_NUM);
+        long start = System.nanoTime();
+        for (int i = 0; i < ASK_NUM; i++) {
+            CompletableFuture<Integer> future = echoActor.ask(i, TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            int request = i;
+            future.whenComplete((result, throwable) -> {
+                if (throwable instanceof TimeoutException) {
+                    timeout.incrementAndGet();
+                } else if (throwable == null && result == request) {
+                    replied.incrementAndGet();
+                } else {
+                    error.incrementAndGet();
+                }
+                latch.countDown();
+            });
+        }
+        long sendCost = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        latch.await();
+        long cost = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        System.out.println(String.format("%d asks, send cost %d ms, all completed cost %d ms, replied=%d, timeout=%d, error=%d",
+                ASK_NUM, sendCost, cost, replied.get(), timeout.get(), error.get()));
+        System.exit(0);
+    }
+
+    public static class EchoActor extends AbstractActor<EchoActor> {
+        public EchoActor(ActorPath actorPath, ActorSystem actorSystem) {
+            super(actorPath, actorSystem);
+        }
+
+        @Override
+        public Receive createReceiver() {
+            return ReceiveBuilder.create().match(Integer.class, (EchoActor applier, Integer message) -> {
+                switch (message % 4) {
+                    case 0:
+                        applier.reply(message);
+                        break;
+                    case 1:
+                        //异步回复
+                        CompletableFuture<Integer> future = applier.currentAsk();
+                        REPLY_EXECUTOR.execute(() -> future.complete(message));
+                        break;
+                    default:
+                        //不回复, 等待超时
+                        break;
+                }
+            }).build();
+        }
+
+        @Override
+        public int compareTo(EchoActor o) {
+            return 0;
+        }
+    }
+}
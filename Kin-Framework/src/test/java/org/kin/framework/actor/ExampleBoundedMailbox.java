@@ -0,0 +1,85 @@
+package org.kin.framework.actor;
+
+import org.kin.framework.actor.domain.ActorPath;
+import org.kin.framework.actor.impl.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Created by huangjianqin on 2018/12/13.
+ * 慢actor使用有界邮箱, 各溢出策略下处理及进入死信通道的邮件数
+ */
+public class ExampleBoundedMailbox {
+    private static final int CAPACITY = 100;
+    private static final int MESSAGE_NUM = 10_000;
+
+    public static void main(String[] args) throws InterruptedException {
+        ActorSystem actorSystem = ActorSystem.create("example-bounded-mailbox");
+        AtomicInteger deadLetterSubscribed = new AtomicInteger();
+        actorSystem.getDeadLetters().subscribe(deadLetter -> deadLetterSubscribed.incrementAndGet());
+
+        for (MailboxOverflowStrategy strategy : MailboxOverflowStrategy.values()) {
+            SlowActor slowActor = actorSystem.actorOf(SlowActor.class, strategy.name());
+            slowActor.boundMailbox(CAPACITY, strategy, 1, TimeUnit.MILLISECONDS);
+            int rejected = 0;
+            for (int i = 0; i < MESSAGE_NUM; i++) {
+                try {
+                    slowActor.receive(i);
+                } catch (MailboxOverflowException e) {
+                    rejected++;
+                }
+            }
+            slowActor.stop();
+            slowActor.latch.await();
+            System.out.println(String.format("%-12s handled=%d, rejected=%d, last handled=%d",
+                    strategy, slowActor.handled.get(), rejected, slowActor.last));
+        }
+
+        SlowActor stopped = actorSystem.actorOf(SlowActor.class, "stopped");
+        stopped.stop();
+        stopped.latch.await();
+        stopped.receive(1);
+        System.out.println("ask stopped actor: " + stopped.ask(1, 1, TimeUnit.SECONDS).handle((r, t) -> t).join());
+
+        System.out.println("dead letters: " + actorSystem.getMetrics().getDeadLetterCounts());
+        System.out.println(String.format("overflow=%d, stopped=%d, subscribed=%d",
+                actorSystem.getMetrics().getOverflowDeadLetterCount(),
+                actorSystem.getMetrics().getStoppedDeadLetterCount(),
+                deadLetterSubscribed.get()));
+        System.exit(0);
+    }
+
+    public static class SlowActor extends AbstractActor<SlowActor> {
+        private final AtomicInteger handled = new AtomicInteger();
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private volatile int last = -1;
+
+        public SlowActor(ActorPath actorPath, ActorSystem actorSystem) {
+            super(actorPath, actorSystem);
+        }
+
+        @Override
+        public Receive createReceiver() {
+            return ReceiveBuilder.create().match(Integer.class, (SlowActor applier, Integer message) -> {
+                long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(20);
+                while (System.nanoTime() < deadline) {
+                    //空转模拟处理耗时
+                }
+                applier.handled.incrementAndGet();
+                applier.last = message;
+            }).build();
+        }
+
+        @Override
+        protected void postStop() {
+            latch.countDown();
+        }
+
+        @Override
+        public int compareTo(SlowActor o) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package org.kin.framework.actor;
+
+import org.kin.framework.actor.domain.ActorPath;
+import org.kin.framework.actor.impl.*;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Created by huangjianqin on 2018/12/12.
+ * 各routee选择策略下的消息分布, 以及根据邮箱压力动态调整routee数
+ */
+public class ExampleRouter {
+    private static final int MESSAGE_NUM = 10_000;
+
+    public static void main(String[] args) throws InterruptedException {
+        ActorSystem actorSystem = ActorSystem.create("example-router");
+
+        run(actorSystem, "roundRobin", RoutingStrategies.roundRobin());
+        run(actorSystem, "random", RoutingStrategies.random());
+        run(actorSystem, "smallestMailbox", RoutingStrategies.smallestMailbox());
+        run(actorSystem, "consistentHash", RoutingStrategies.consistentHash(message -> ((Integer) message) % 10));
+        run(actorSystem, "broadcast", RoutingStrategies.broadcast());
+
+        Router<CountActor> router = actorSystem.routerOf(CountActor.class, "resize", 1, RoutingStrategies.roundRobin())
+                .enableResize(1, 4, 100, 50, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 20; i++) {
+            for (int j = 0; j < 5_000; j++) {
+                router.tell(actor -> sleepMicros(100));
+            }
+            Thread.sleep(50);
+            System.out.println("under pressure, routee num: " + router.getRouteeNum());
+        }
+        for (int i = 0; i < 20 && router.getRouteeNum() > 1; i++) {
+            Thread.sleep(1000);
+            System.out.println("idle, routee num: " + router.getRouteeNum());
+        }
+        System.exit(0);
+    }
+
+    private static void run(ActorSystem actorSystem, String name, RoutingStrategy strategy) throws InterruptedException {
+        Router<CountActor> router = actorSystem.routerOf(CountActor.class, name, 4, strategy);
+        for (int i = 0; i < MESSAGE_NUM; i++) {
+            router.receive(i);
+        }
+        Thread.sleep(500);
+        StringBuilder sb = new StringBuilder(name).append(": ");
+        for (CountActor routee : router.getRoutees()) {
+            sb.append(routee.getPath().getName()).append("=").append(routee.count.get()).append("(").append(routee.keys.size()).append(" keys) ");
+        }
+        System.out.println(sb);
+        router.stop();
+    }
+
+    private static void sleepMicros(long micros) {
+        long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(micros);
+        while (System.nanoTime() < deadline) {
+            //空转模拟处理耗时
+        }
+    }
+
+    public static class CountActor extends AbstractActor<CountActor> {
+        private final AtomicInteger count = new AtomicInteger();
+        private final Map<Integer, Boolean> keys = new ConcurrentHashMap<>();
+
+        public CountActor(ActorPath actorPath, ActorSystem actorSystem) {
+            super(actorPath, actorSystem);
+        }
+
+        @Override
+        public Receive createReceiver() {
+            return ReceiveBuilder.create().match(Integer.class, (CountActor applier, Integer message) -> {
+                applier.count.incrementAndGet();
+                applier.keys.put(message % 10, true);
+            }).build();
+        }
+
+        @Override
+        public int compareTo(CountActor o) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package org.kin.framework.actor;
+
+import org.kin.framework.actor.domain.ActorPath;
+import org.kin.framework.actor.impl.AbstractActor;
+import org.kin.framework.actor.impl.ActorSystem;
+import org.kin.framework.actor.impl.ReceiveBuilder;
+import org.kin.framework.concurrent.ThreadManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Created by huangjianqin on 2018/12/9.
+ * 对比旧邮箱(ConcurrentLinkedDeque + AtomicInteger计数)与MPSC邮箱在不同throughput下的消息吞吐量
+ * 多个生产者向同一actor发消息, 另有多个actor争用同一线程池
+ * 单轮结果受调度影响波动较大, 最后输出各配置多轮的中位数
+ */
+public class MailboxBenchmark {
+    private static final int PRODUCER_NUM = 4;
+    private static final int ACTOR_NUM = 4;
+    private static final int MESSAGES_PER_PRODUCER = 1_000_000;
+    private static final int[] THROUGHPUTS = {1, 10, 100, 1000};
+    private static final int ROUNDS = 5;
+    //每个生产者最多领先已处理消息数, 避免大量积压邮件引起的GC主导结果
+    private static final int MAX_IN_FLIGHT = 16 * 1024;
+    //配置 -> 每轮msgs/s
+    private static final Map<String, List<Long>> RESULTS = new LinkedHashMap<>();
+
+    public static void main(String[] args) throws InterruptedException {
+        ThreadManager threadManager = new ThreadManager(Executors.newFixedThreadPool(2));
+        for (int round = 0; round < ROUNDS; round++) {
+            run("legacy", () -> {
+                LegacyActor[] actors = new LegacyActor[ACTOR_NUM];
+                for (int i = 0; i < ACTOR_NUM; i++) {
+                    actors[i] = new LegacyActor(threadManager);
+                }
+                return actors;
+            });
+            for (int throughput : THROUGHPUTS) {
+                ActorSystem actorSystem = ActorSystem.create("mailbox-benchmark-" + round + "-" + throughput, threadManager, throughput);
+                run("mpsc, throughput=" + throughput, () -> {
+                    CounterActor[] actors = new CounterActor[ACTOR_NUM];
+                    for (int i = 0; i < ACTOR_NUM; i++) {
+                        actors[i] = actorSystem.actorOf(CounterActor.class, "counter-" + i);
+                    }
+                    return actors;
+                });
+            }
+            System.out.println();
+        }
+        System.out.println("median of " + ROUNDS + " rounds:");
+        for (Map.Entry<String, List<Long>> entry : RESULTS.entrySet()) {
+            List<Long> results = entry.getValue();
+            Collections.sort(results);
+            System.out.println(String.format("%-22s %d msgs/s", entry.getKey(), results.get(results.size() / 2)));
+        }
+        threadManager.shutdownNow();
+        System.exit(0);
+    }
+
+    private static void run(String name, Callable<Counter[]> actorsCreator) throws InterruptedException {
+        Counter[] actors;
+        try {
+            actors = actorsCreator.call();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        CountDownLatch startLatch = new CountDownLatch(1);
+        Thread[] producers = new Thread[PRODUCER_NUM];
+        for (int i = 0; i < PRODUCER_NUM; i++) {
+            producers[i] = new Thread(() -> {
+                try {
+                    startLatch.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long sent = 0;
+                for (int j = 0; j < MESSAGES_PER_PRODUCER; j++) {
+                    actors[j % ACTOR_NUM].send();
+                    if ((++sent & 1023) == 0) {
+                        while (sent * PRODUCER_NUM - sum(actors) > (long) MAX_IN_FLIGHT * PRODUCER_NUM) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            });
+            producers[i].start();
+        }
+
+        long total = (long) PRODUCER_NUM * MESSAGES_PER_PRODUCER;
+        long start = System.nanoTime();
+        startLatch.countDown();
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        while (sum(actors) < total) {
+            Thread.yield();
+        }
+        long cost = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        long msgsPerSecond = total * 1000 / Math.max(cost, 1);
+        RESULTS.computeIfAbsent(name, k -> new ArrayList<>()).add(msgsPerSecond);
+        System.out.println(String.format("%-22s %d msgs cost %d ms, %d msgs/s", name, total, cost, msgsPerSecond));
+    }
+
+    private static long sum(Counter[] actors) {
+        long sum = 0;
+        for (Counter actor : actors) {
+            sum += actor.count();
+        }
+        return sum;
+    }
+
+    private interface Counter {
+        void send();
+
+        long count();
+    }
+
+    public static class CounterActor extends AbstractActor<CounterActor> implements Counter {
+        private final LongAdder counter = new LongAdder();
+
+        public CounterActor(ActorPath actorPath, ActorSystem actorSystem) {
+            super(actorPath, actorSystem);
+        }
+
+        @Override
+        public Receive createReceiver() {
+            return ReceiveBuilder.create().build();
+        }
+
+        @Override
+        public int compareTo(CounterActor o) {
+            return 0;
+        }
+
+        @Override
+        public void send() {
+            tell(actor -> counter.increment());
+        }
+
+        @Override
+        public long count() {
+            return counter.sum();
+        }
+    }
+
+    /**
+     * 旧的邮箱实现, 每封邮件一次队列节点分配及多次CAS, 邮箱处理完才让出线程
+     */
+    private static class LegacyActor implements Runnable, Counter {
+        private static final Logger profileLog = LoggerFactory.getLogger("ActorProfile");
+
+        private final ThreadManager threadManager;
+        private final Queue<Runnable> mailBox = new ConcurrentLinkedDeque<>();
+        private final AtomicInteger boxSize = new AtomicInteger();
+        private final LongAdder counter = new LongAdder();
+
+        private LegacyActor(ThreadManager threadManager) {
+            this.threadManager = threadManager;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Runnable mail = mailBox.poll();
+                if (mail == null) {
+                    break;
+                }
+
+                long st = System.currentTimeMillis();
+                mail.run();
+                long cost = System.currentTimeMillis() - st;
+
+                profileLog.info("handle mail({}) cost {} ms", mail.getClass().getName(), cost);
+
+                if (boxSize.decrementAndGet() <= 0) {
+                    break;
+                }
+            }
+        }
+
+        @Override
+        public void send() {
+            mailBox.add(counter::increment);
+            if (boxSize.incrementAndGet() == 1) {
+                threadManager.execute(this);
+            }
+        }
+
+        @Override
+        public long count() {
+            return counter.sum();
+        }
+    }
+}
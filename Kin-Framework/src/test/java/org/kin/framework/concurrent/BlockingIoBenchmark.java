@@ -0,0 +1,50 @@
+package org.kin.framework.concurrent;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by huangjianqin on 2018/11/22.
+ * 对比各ExecutorType在阻塞I/O场景下的吞吐量及占用的平台线程数
+ * 用sleep模拟一次阻塞的远程调用(比如HBase get)
+ */
+public class BlockingIoBenchmark {
+    private static final int TASK_NUM = 2_000;
+    //模拟一次阻塞I/O耗时
+    private static final long IO_MILLIS = 10;
+
+    public static void main(String[] args) throws InterruptedException {
+        System.out.println("virtual thread supported: " + ExecutorType.isVirtualThreadSupported());
+        for (ExecutorType executorType : ExecutorType.values()) {
+            //预热
+            run(executorType);
+            ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+            threadMXBean.resetPeakThreadCount();
+            long cost = run(executorType);
+            System.out.println(String.format("%-10s %d tasks cost %d ms, %d ops/s, peak platform threads %d",
+                    executorType.getName(), TASK_NUM, cost, TASK_NUM * 1000L / Math.max(cost, 1), threadMXBean.getPeakThreadCount()));
+        }
+    }
+
+    private static long run(ExecutorType executorType) throws InterruptedException {
+        ThreadManager threadManager = new ThreadManager(executorType.getExecutor());
+        CountDownLatch latch = new CountDownLatch(TASK_NUM);
+        long start = System.nanoTime();
+        for (int i = 0; i < TASK_NUM; i++) {
+            threadManager.execute(() -> {
+                try {
+                    Thread.sleep(IO_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                latch.countDown();
+            });
+        }
+        latch.await();
+        long cost = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        threadManager.shutdownNow();
+        return cost;
+    }
+}
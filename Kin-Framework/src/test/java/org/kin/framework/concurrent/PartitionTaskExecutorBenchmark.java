@@ -0,0 +1,70 @@
+package org.kin.framework.concurrent;
+
+import org.kin.framework.concurrent.impl.HashPartitioner;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Created by huangjianqin on 2018/11/12.
+ * 对比BLOCKING与MPSC两种分区队列的吞吐量
+ * 多个生产者对大量key提交极小的task
+ */
+public class PartitionTaskExecutorBenchmark {
+    private static final int PARTITION_NUM = 8;
+    private static final int PRODUCER_NUM = 4;
+    private static final int TASKS_PER_PRODUCER = 1_000_000;
+    private static final int KEY_NUM = 10_000;
+
+    public static void main(String[] args) throws InterruptedException {
+        //预热
+        for (PartitionTaskExecutor.QueueType queueType : PartitionTaskExecutor.QueueType.values()) {
+            run(queueType);
+        }
+        for (int i = 0; i < 3; i++) {
+            for (PartitionTaskExecutor.QueueType queueType : PartitionTaskExecutor.QueueType.values()) {
+                long cost = run(queueType);
+                long total = (long) PRODUCER_NUM * TASKS_PER_PRODUCER;
+                System.out.println(String.format("%s: %d tasks cost %d ms, %d ops/s",
+                        queueType, total, cost, total * 1000 / Math.max(cost, 1)));
+            }
+        }
+    }
+
+    private static long run(PartitionTaskExecutor.QueueType queueType) throws InterruptedException {
+        PartitionTaskExecutor<Integer> executor = new PartitionTaskExecutor<>(PARTITION_NUM, new HashPartitioner<>(), queueType);
+        LongAdder counter = new LongAdder();
+        Runnable task = counter::increment;
+        long total = (long) PRODUCER_NUM * TASKS_PER_PRODUCER;
+
+        CountDownLatch startLatch = new CountDownLatch(1);
+        Thread[] producers = new Thread[PRODUCER_NUM];
+        for (int i = 0; i < PRODUCER_NUM; i++) {
+            int offset = i;
+            producers[i] = new Thread(() -> {
+                try {
+                    startLatch.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int j = 0; j < TASKS_PER_PRODUCER; j++) {
+                    executor.execute((offset + j) % KEY_NUM, task);
+                }
+            });
+            producers[i].start();
+        }
+
+        long start = System.nanoTime();
+        startLatch.countDown();
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        while (counter.sum() < total) {
+            Thread.yield();
+        }
+        long cost = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        executor.shutdownNow();
+        return cost;
+    }
+}
@@ -0,0 +1,93 @@
+package org.kin.framework.concurrent;
+
+import org.kin.framework.concurrent.impl.*;
+import org.kin.framework.event.EventHandler;
+import org.kin.framework.event.FirstEvent;
+import org.kin.framework.event.FirstEventType;
+import org.kin.framework.event.impl.AsyncDispatcher;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Created by huangjianqin on 2018/11/20.
+ * 对比各等待策略下, 任务从提交到开始执行的延迟(p50/p99)
+ * 每次提交前间隔一段时间, 使消费者线程进入空闲等待, 测量的是唤醒延迟
+ */
+public class WaitStrategyBenchmark {
+    private static final int ROUNDS = 20_000;
+    private static final int WARMUP_ROUNDS = 2_000;
+    //两次提交之间的间隔
+    private static final long INTERVAL_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private static final String[] NAMES = {"BusySpin", "SpinYield", "SpinYieldPark", "Blocking"};
+    private static final Supplier<WaitStrategy>[] STRATEGIES = strategies();
+
+    @SuppressWarnings("unchecked")
+    private static Supplier<WaitStrategy>[] strategies() {
+        return new Supplier[]{
+                BusySpinWaitStrategy::new,
+                SpinYieldWaitStrategy::new,
+                SpinYieldParkWaitStrategy::new,
+                BlockingWaitStrategy::new};
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        for (int i = 0; i < STRATEGIES.length; i++) {
+            PartitionTaskExecutor<Integer> executor = new PartitionTaskExecutor<>(1, new HashPartitioner<>(),
+                    PartitionTaskExecutor.QueueType.MPSC, STRATEGIES[i].get());
+            LatencyRecorder recorder = new LatencyRecorder();
+            run(recorder, () -> executor.execute(0, recorder::onReceive));
+            executor.shutdownNow();
+            recorder.print("PartitionTaskExecutor-" + NAMES[i]);
+        }
+
+        for (int i = 0; i < STRATEGIES.length; i++) {
+            AsyncDispatcher dispatcher = new AsyncDispatcher(1, false, STRATEGIES[i].get());
+            LatencyRecorder recorder = new LatencyRecorder();
+            dispatcher.register(FirstEventType.class, (EventHandler<FirstEvent>) event -> recorder.onReceive());
+            dispatcher.serviceInit();
+            dispatcher.serviceStart();
+            FirstEvent event = new FirstEvent(FirstEventType.E);
+            run(recorder, () -> dispatcher.getEventHandler().handle(event));
+            dispatcher.serviceStop();
+            recorder.print("AsyncDispatcher-" + NAMES[i]);
+        }
+    }
+
+    private static void run(LatencyRecorder recorder, Runnable submit) {
+        for (int i = 0; i < WARMUP_ROUNDS + ROUNDS; i++) {
+            long deadline = System.nanoTime() + INTERVAL_NANOS;
+            while (System.nanoTime() < deadline) {
+                //空转等待, 不让出CPU, 避免影响测量
+            }
+            recorder.sendNanos = System.nanoTime();
+            submit.run();
+            //等待本次task执行完才进行下一次提交
+            while (recorder.received.get() <= i) {
+                Thread.yield();
+            }
+        }
+    }
+
+    private static class LatencyRecorder {
+        private final long[] latencies = new long[WARMUP_ROUNDS + ROUNDS];
+        private final AtomicInteger received = new AtomicInteger();
+        private volatile long sendNanos;
+
+        private void onReceive() {
+            long latency = System.nanoTime() - sendNanos;
+            latencies[received.get()] = latency;
+            received.incrementAndGet();
+        }
+
+        private void print(String name) {
+            long[] sorted = Arrays.copyOfRange(latencies, WARMUP_ROUNDS, latencies.length);
+            Arrays.sort(sorted);
+            System.out.println(String.format("%-36s p50=%6d ns, p99=%8d ns, max=%9d ns", name,
+                    sorted[sorted.length / 2], sorted[(int) (sorted.length * 0.99)], sorted[sorted.length - 1]));
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package org.kin.framework.event;
+
+import org.kin.framework.concurrent.RingBuffer;
+import org.kin.framework.event.impl.AsyncDispatcher;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Created by huangjianqin on 2018/11/28.
+ * 对比AsyncDispatcher阻塞队列模式与环形缓冲区模式的事件吞吐量
+ */
+public class DispatcherBenchmark {
+    private static final int EVENTS_PER_PRODUCER = 2_000_000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    public static void main(String[] args) throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            run("queue, 1 producer", 1, () -> new AsyncDispatcher(1, false));
+            run("ring(SINGLE), 1 producer", 1, () -> new AsyncDispatcher(BUFFER_SIZE, RingBuffer.ProducerType.SINGLE, null));
+            run("queue, 4 producers", 4, () -> new AsyncDispatcher(1, false));
+            run("ring(MULTI), 4 producers", 4, () -> new AsyncDispatcher(BUFFER_SIZE, RingBuffer.ProducerType.MULTI, null));
+            System.out.println();
+        }
+    }
+
+    private static void run(String name, int producerNum, Supplier<AsyncDispatcher> dispatcherSupplier) throws InterruptedException {
+        AsyncDispatcher dispatcher = dispatcherSupplier.get();
+        LongAdder counter = new LongAdder();
+        dispatcher.register(FirstEventType.class, (EventHandler<FirstEvent>) event -> counter.increment());
+        dispatcher.serviceInit();
+        dispatcher.serviceStart();
+
+        //复用事件对象, 只测量分发本身的开销
+        FirstEvent event = new FirstEvent(FirstEventType.E);
+        EventHandler handler = dispatcher.getEventHandler();
+        CountDownLatch startLatch = new CountDownLatch(1);
+        Thread[] producers = new Thread[producerNum];
+        for (int i = 0; i < producerNum; i++) {
+            producers[i] = new Thread(() -> {
+                try {
+                    startLatch.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int j = 0; j < EVENTS_PER_PRODUCER; j++) {
+                    handler.handle(event);
+                }
+            });
+            producers[i].start();
+        }
+
+        long total = (long) producerNum * EVENTS_PER_PRODUCER;
+        long start = System.nanoTime();
+        startLatch.countDown();
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        while (counter.sum() < total) {
+            Thread.yield();
+        }
+        long cost = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        dispatcher.serviceStop();
+        System.out.println(String.format("%-28s %d events cost %d ms, %d events/s", name, total, cost, total * 1000 / Math.max(cost, 1)));
+    }
+}
@@ -0,0 +1,176 @@
+package org.kin.framework.event;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.kin.framework.event.impl.EventJournal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Created by huangjianqin on 2018/12/14.
+ * 事件日志的追加, 崩溃恢复回放, 确认, checkpoint及segment删除
+ * 不close即视为进程崩溃, close会写checkpoint
+ */
+public class EventJournalTest {
+    //每个segment只能放下几条事件, 以便测试滚动及删除
+    private static final int SEGMENT_SIZE = 1024;
+
+    private File dir;
+    private final List<EventJournal> journals = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("event-journal").toFile();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (EventJournal journal : journals) {
+            journal.close();
+        }
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private EventJournal open() throws IOException {
+        EventJournal journal = new EventJournal(dir, SEGMENT_SIZE, EventJournal.FlushPolicy.SYNC, 10, TimeUnit.MILLISECONDS, new EventJournal.JdkSerializer());
+        journals.add(journal);
+        return journal;
+    }
+
+    private static List<Long> replay(EventJournal journal, List<Integer> ids) {
+        List<Long> sequences = new ArrayList<>();
+        journal.replay((event, sequence) -> {
+            sequences.add(sequence);
+            ids.add(((IdEvent) event).id);
+        });
+        return sequences;
+    }
+
+    private File[] segmentFiles() {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".journal"));
+        return files != null ? files : new File[0];
+    }
+
+    @Test
+    public void replayUnackedEventsAfterCrash() throws IOException {
+        EventJournal crashed = open();
+        for (int i = 1; i <= 10; i++) {
+            assertEquals(i, crashed.append(new IdEvent(i)));
+        }
+        assertTrue("events should span several segments", segmentFiles().length > 1);
+
+        EventJournal journal = open();
+        List<Integer> ids = new ArrayList<>();
+        List<Long> sequences = replay(journal, ids);
+        assertEquals(10, sequences.size());
+        for (int i = 1; i <= 10; i++) {
+            assertEquals(Long.valueOf(i), sequences.get(i - 1));
+            assertEquals(Integer.valueOf(i), ids.get(i - 1));
+        }
+        assertEquals(10, journal.getUnackedNum());
+        //新事件接着恢复的最大序号
+        assertEquals(11, journal.append(new IdEvent(11)));
+
+        //只能回放一次
+        List<Integer> again = new ArrayList<>();
+        assertTrue(replay(journal, again).isEmpty());
+    }
+
+    @Test
+    public void checkpointDeletesAckedSegments() throws IOException {
+        EventJournal crashed = open();
+        for (int i = 1; i <= 10; i++) {
+            crashed.append(new IdEvent(i));
+        }
+        int segmentNum = segmentFiles().length;
+        assertTrue(segmentNum > 1);
+
+        EventJournal journal = open();
+        for (long sequence : replay(journal, new ArrayList<>())) {
+            journal.ack(sequence);
+        }
+        journal.ack(journal.append(new IdEvent(11)));
+        assertEquals(0, journal.getUnackedNum());
+        journal.close();
+
+        assertEquals(11, journal.getCheckpoint());
+        //恢复的segment已全部确认, 被删除, 只剩当前写入的segment
+        assertEquals(1, segmentFiles().length);
+
+        EventJournal reopened = open();
+        assertEquals(11, reopened.getCheckpoint());
+        assertTrue(replay(reopened, new ArrayList<>()).isEmpty());
+        assertEquals(12, reopened.append(new IdEvent(12)));
+    }
+
+    @Test
+    public void checkpointStopsAtFirstUnacked() throws IOException {
+        EventJournal journal = open();
+        long first = journal.append(new IdEvent(1));
+        journal.append(new IdEvent(2));
+        long third = journal.append(new IdEvent(3));
+        journal.ack(first);
+        journal.ack(third);
+        journal.close();
+        assertEquals(first, journal.getCheckpoint());
+
+        //checkpoint之后的事件都会回放, 包括已确认但不连续的事件
+        List<Integer> ids = new ArrayList<>();
+        replay(open(), ids);
+        assertEquals(2, ids.size());
+        assertEquals(Integer.valueOf(2), ids.get(0));
+        assertEquals(Integer.valueOf(3), ids.get(1));
+    }
+
+    @Test
+    public void ignoreTornTail() throws IOException {
+        EventJournal crashed = open();
+        crashed.append(new IdEvent(1));
+        crashed.append(new IdEvent(2));
+
+        //模拟写了一半的第二条记录: 长度已写入, payload不完整(crc不符)
+        File[] segments = segmentFiles();
+        assertEquals(1, segments.length);
+        try (RandomAccessFile raf = new RandomAccessFile(segments[0], "rw")) {
+            int firstLength = raf.readInt();
+            long secondPayload = 16 + firstLength + 16;
+            raf.seek(secondPayload);
+            int b = raf.read();
+            raf.seek(secondPayload);
+            raf.write(~b);
+        }
+
+        EventJournal journal = open();
+        List<Integer> ids = new ArrayList<>();
+        List<Long> sequences = replay(journal, ids);
+        assertEquals(1, sequences.size());
+        assertEquals(Long.valueOf(1), sequences.get(0));
+        assertEquals(Integer.valueOf(1), ids.get(0));
+        //被丢弃的序号重新使用
+        assertEquals(2, journal.append(new IdEvent(3)));
+    }
+
+    static class IdEvent extends AbstractEvent<FirstEventType> {
+        private final int id;
+
+        IdEvent(int id) {
+            super(FirstEventType.O);
+            this.id = id;
+        }
+    }
+}
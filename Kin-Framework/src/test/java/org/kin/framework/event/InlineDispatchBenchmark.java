@@ -0,0 +1,57 @@
+package org.kin.framework.event;
+
+import org.kin.framework.concurrent.LatencyHistogram;
+import org.kin.framework.event.impl.AsyncDispatcher;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Created by huangjianqin on 2018/12/8.
+ * 低流量下, 对比入队分发与内联分发的事件从提交到开始处理的延迟(p50/p99)
+ */
+public class InlineDispatchBenchmark {
+    private static final int ROUNDS = 20_000;
+    private static final int WARMUP_ROUNDS = 2_000;
+    //两次提交之间的间隔, 使分发线程进入空闲等待
+    private static final long INTERVAL_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    public static void main(String[] args) {
+        run("queued", new AsyncDispatcher(1, false));
+        run("inline", new AsyncDispatcher(1, false).enableInline());
+    }
+
+    private static void run(String name, AsyncDispatcher dispatcher) {
+        LatencyHistogram histogram = new LatencyHistogram();
+        AtomicInteger received = new AtomicInteger();
+        AtomicLong sendNanos = new AtomicLong();
+        dispatcher.register(FirstEventType.class, (InlineEventHandler<FirstEvent>) event -> {
+            long latency = System.nanoTime() - sendNanos.get();
+            if (received.getAndIncrement() >= WARMUP_ROUNDS) {
+                histogram.record(latency);
+            }
+        });
+        dispatcher.serviceInit();
+        dispatcher.serviceStart();
+
+        FirstEvent event = new FirstEvent(FirstEventType.E);
+        EventHandler handler = dispatcher.getEventHandler();
+        for (int i = 0; i < WARMUP_ROUNDS + ROUNDS; i++) {
+            long deadline = System.nanoTime() + INTERVAL_NANOS;
+            while (System.nanoTime() < deadline) {
+                //空转等待
+            }
+            sendNanos.set(System.nanoTime());
+            handler.handle(event);
+            //等待本次事件处理完才进行下一次提交
+            while (received.get() <= i) {
+                Thread.yield();
+            }
+        }
+        dispatcher.serviceStop();
+        System.out.println(String.format("%-8s p50=%dns p99=%dns max=%dns, inline=%d, queued=%d", name,
+                histogram.getPercentile(0.5), histogram.getPercentile(0.99), histogram.getMax(),
+                dispatcher.getInlineDispatchedCount(), dispatcher.getQueuedDispatchedCount()));
+    }
+}